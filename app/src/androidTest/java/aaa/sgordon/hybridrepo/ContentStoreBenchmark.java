@@ -0,0 +1,235 @@
+package aaa.sgordon.hybridrepo;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import aaa.sgordon.hybridrepo.local.LContentHelper;
+import aaa.sgordon.hybridrepo.local.types.LPackEntry;
+
+//Compares the old flat content directory against the sharded layout.
+//These take a long while at the larger sizes, so they're best run one at a time.
+public class ContentStoreBenchmark {
+	private static final int LOOKUPS = 10_000;
+
+
+	@Test
+	public void layout_10k(@TempDir File tempDir) throws IOException {
+		compareLayouts(tempDir, 10_000);
+	}
+
+	@Test
+	public void layout_100k(@TempDir File tempDir) throws IOException {
+		compareLayouts(tempDir, 100_000);
+	}
+
+	@Test
+	public void layout_1M(@TempDir File tempDir) throws IOException {
+		compareLayouts(tempDir, 1_000_000);
+	}
+
+
+	@Test
+	public void migrate_flatToSharded(@TempDir File tempDir) throws IOException {
+		String[] hashes = generateHashes(1_000);
+		File flatRoot = new File(tempDir, "content");
+		createFlat(flatRoot, hashes);
+
+		LContentHelper helper = new LContentHelper(tempDir.toString());
+
+		//Content should be readable before the migration even starts, moving it along the way
+		File first = new File(helper.getContentUri(hashes[0]).getPath());
+		Assertions.assertTrue(first.exists());
+		Assertions.assertFalse(new File(flatRoot, hashes[0]).exists());
+
+		//Migrate in small batches to make sure it resumes properly
+		int moved;
+		int totalMoved = 0;
+		while((moved = helper.migrateFlatLayout(100)) > 0)
+			totalMoved += moved;
+
+		Assertions.assertEquals(hashes.length - 1, totalMoved);
+		Assertions.assertTrue(helper.isFlatLayoutMigrated());
+		for(String hash : hashes) {
+			Assertions.assertFalse(new File(flatRoot, hash).exists());
+			Assertions.assertTrue(new File(helper.getContentUri(hash).getPath()).exists());
+		}
+	}
+
+
+	@Test
+	public void compression_text(@TempDir File tempDir) throws IOException {
+		StringBuilder json = new StringBuilder();
+		Random random = new Random(0);
+		while(json.length() < 8 * 1024 * 1024)
+			json.append("{\"fileuid\":\"").append(random.nextLong()).append("\",\"isdir\":false,\"changes\":{\"size\":")
+					.append(random.nextInt(100_000)).append("}}\n");
+
+		measureCompression(tempDir, "JSON", json.toString().getBytes(), true);
+	}
+
+	@Test
+	public void compression_random(@TempDir File tempDir) throws IOException {
+		byte[] data = new byte[8 * 1024 * 1024];
+		new Random(0).nextBytes(data);
+
+		//Random data should be rejected by the sample without paying for a full compression pass
+		measureCompression(tempDir, "Random", data, false);
+	}
+
+
+	@Test
+	public void smallBlobs_packedVsFiles(@TempDir File tempDir) throws IOException {
+		int blobCount = 10_000;
+		String[] hashes = generateHashes(blobCount);
+		byte[][] blobs = new byte[blobCount][];
+		Random random = new Random(0);
+		for(int i = 0; i < blobCount; i++) {
+			blobs[i] = new byte[random.nextInt(2048)];
+			random.nextBytes(blobs[i]);
+		}
+
+		LContentHelper fileHelper = new LContentHelper(new File(tempDir, "files").toString());
+		long start = System.nanoTime();
+		for(int i = 0; i < blobCount; i++)
+			fileHelper.writeContents(hashes[i], blobs[i]);
+		long fileWrite = System.nanoTime() - start;
+
+		LContentHelper packHelper = new LContentHelper(new File(tempDir, "packs").toString());
+		LPackEntry[] entries = new LPackEntry[blobCount];
+		start = System.nanoTime();
+		for(int i = 0; i < blobCount; i++)
+			entries[i] = packHelper.packContents(hashes[i], blobs[i]);
+		long packWrite = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for(int i = 0; i < blobCount; i++)
+			Assertions.assertArrayEquals(blobs[i], packHelper.readPackedContents(entries[i]));
+		long packRead = System.nanoTime() - start;
+
+
+		System.out.println("=====================================================================");
+		System.out.printf("Writing %d small blobs%n", blobCount);
+		System.out.printf("  Own files: %8.2f us/blob%n", fileWrite / 1e3 / blobCount);
+		System.out.printf("  Packed:    %8.2f us/blob, read back: %8.2f us/blob%n",
+				packWrite / 1e3 / blobCount, packRead / 1e3 / blobCount);
+		System.out.println("=====================================================================");
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+
+	private void measureCompression(File tempDir, String label, byte[] data, boolean expectCompressed) throws IOException {
+		LContentHelper helper = new LContentHelper(tempDir.toString());
+		String name = helper.writeContents(label, data).name;
+
+		long start = System.nanoTime();
+		long storedSize = helper.compressContents(name);
+		long compressTime = System.nanoTime() - start;
+		Assertions.assertEquals(expectCompressed, storedSize >= 0);
+		if(storedSize >= 0)
+			helper.dropWholeContents(name);
+
+		start = System.nanoTime();
+		ByteArrayOutputStream read = new ByteArrayOutputStream(data.length);
+		try(InputStream in = helper.openContentStream(name)) {
+			byte[] buffer = new byte[65536];
+			int bytesRead;
+			while((bytesRead = in.read(buffer)) != -1)
+				read.write(buffer, 0, bytesRead);
+		}
+		long readTime = System.nanoTime() - start;
+		Assertions.assertArrayEquals(data, read.toByteArray());
+
+
+		double mb = data.length / (1024.0 * 1024.0);
+		System.out.println("=====================================================================");
+		System.out.printf("%s compression, %.0f MB%n", label, mb);
+		System.out.printf("  Stored: %d bytes (ratio %.3f)%n", storedSize >= 0 ? storedSize : data.length,
+				storedSize >= 0 ? (double) storedSize / data.length : 1.0);
+		System.out.printf("  Compress: %8.2f MB/s, read: %8.2f MB/s%n", mb / (compressTime / 1e9), mb / (readTime / 1e9));
+		System.out.println("=====================================================================");
+	}
+
+
+	private void compareLayouts(File tempDir, int blobCount) throws IOException {
+		String[] hashes = generateHashes(blobCount);
+
+		//Flat layout, exactly how content used to be stored
+		File flatRoot = new File(tempDir, "flat/content");
+		long flatCreate = createFlat(flatRoot, hashes);
+		long flatLookup = lookup(hashes, hash -> new File(flatRoot, hash));
+
+		//Sharded layout, using the locations the helper hands out
+		File shardedStorage = new File(tempDir, "sharded");
+		LContentHelper helper = new LContentHelper(shardedStorage.toString());
+		helper.migrateFlatLayout(1);	//Nothing to migrate, this just marks the store as sharded
+
+		long start = System.nanoTime();
+		for(String hash : hashes) {
+			File file = new File(helper.getContentUri(hash).getPath());
+			Files.createDirectories(file.toPath().getParent());
+			Files.createFile(file.toPath());
+		}
+		long shardedCreate = System.nanoTime() - start;
+		long shardedLookup = lookup(hashes, hash -> new File(helper.getContentUri(hash).getPath()));
+
+
+		System.out.println("=====================================================================");
+		System.out.printf("Content layout with %d blobs%n", blobCount);
+		System.out.printf("  Flat    create: %8.2f us/blob, lookup: %8.2f us/blob%n",
+				flatCreate / 1e3 / blobCount, flatLookup / 1e3 / LOOKUPS);
+		System.out.printf("  Sharded create: %8.2f us/blob, lookup: %8.2f us/blob%n",
+				shardedCreate / 1e3 / blobCount, shardedLookup / 1e3 / LOOKUPS);
+		System.out.println("=====================================================================");
+	}
+
+
+	private interface Locator {
+		File locate(String hash) throws IOException;
+	}
+
+	//Returns the total time in nanoseconds to look up a random sample of existing blobs
+	private long lookup(String[] hashes, Locator locator) throws IOException {
+		Random random = new Random(0);
+
+		long start = System.nanoTime();
+		for(int i = 0; i < LOOKUPS; i++) {
+			File file = locator.locate(hashes[random.nextInt(hashes.length)]);
+			Assertions.assertTrue(file.exists());
+		}
+		return System.nanoTime() - start;
+	}
+
+	//Returns the total time in nanoseconds to create every blob
+	private long createFlat(File flatRoot, String[] hashes) throws IOException {
+		Files.createDirectories(flatRoot.toPath());
+
+		long start = System.nanoTime();
+		for(String hash : hashes)
+			Files.createFile(new File(flatRoot, hash).toPath());
+		return System.nanoTime() - start;
+	}
+
+
+	private String[] generateHashes(int count) {
+		Random random = new Random(count);
+		byte[] bytes = new byte[32];
+
+		String[] hashes = new String[count];
+		for(int i = 0; i < count; i++) {
+			random.nextBytes(bytes);
+			ByteBuffer.wrap(bytes).putInt(28, i);	//Make sure they're unique
+			hashes[i] = Utilities.bytesToHex(bytes);
+		}
+		return hashes;
+	}
+}
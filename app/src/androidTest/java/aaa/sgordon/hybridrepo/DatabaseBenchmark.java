@@ -0,0 +1,383 @@
+package aaa.sgordon.hybridrepo;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.room.Room;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.gson.JsonObject;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import aaa.sgordon.hybridrepo.local.database.KeysetIterator;
+import aaa.sgordon.hybridrepo.local.database.LJournalDAO;
+import aaa.sgordon.hybridrepo.local.database.LocalDatabase;
+import aaa.sgordon.hybridrepo.local.types.LFile;
+import aaa.sgordon.hybridrepo.local.types.LJournal;
+
+//Times the journal queries Sync runs on every tick against a journal that's been growing for a long while,
+// and compares how UUID keys are stored.
+//Building the journal takes a minute or two, so it's only done once for the whole class.
+public class DatabaseBenchmark {
+	private static final int JOURNAL_ROWS = 1_000_000;
+	private static final int FILES = 20_000;
+	private static final int ACCOUNTS = 3;
+	private static final int RUNS = 5;
+	private static final int UUID_KEY_ROWS = 500_000;
+	private static final int LOOKUPS = 100_000;
+	private static final int LISTED_FILES = 500_000;
+	private static final int OTHER_FILES = 100_000;
+	private static final int LIST_PAGE_SIZE = 500;
+
+	private static LocalDatabase db;
+	private static LJournalDAO journalDAO;
+	private static UUID[] accounts;
+	private static UUID[] files;
+	//The latest journalid for each file, to check the queries against
+	private static Map<UUID, Integer> latest;
+
+
+	@BeforeAll
+	public static void beforeAll() {
+		Context context = InstrumentationRegistry.getInstrumentation().getContext();
+		db = Room.inMemoryDatabaseBuilder(context, LocalDatabase.class).allowMainThreadQueries().build();
+		journalDAO = db.getJournalDao();
+
+		Random random = new Random(0);
+		accounts = new UUID[ACCOUNTS];
+		for(int i = 0; i < ACCOUNTS; i++)
+			accounts[i] = UUID.randomUUID();
+		files = new UUID[FILES];
+		for(int i = 0; i < FILES; i++)
+			files[i] = UUID.randomUUID();
+
+		latest = new HashMap<>();
+		int journalID = 0;
+		for(int batch = 0; batch < JOURNAL_ROWS / 10_000; batch++) {
+			LJournal[] entries = new LJournal[10_000];
+			for(int i = 0; i < entries.length; i++) {
+				int file = random.nextInt(FILES);
+				JsonObject changes = new JsonObject();
+				changes.addProperty("changetime", i);
+				entries[i] = new LJournal(files[file], accounts[file % ACCOUNTS], changes);
+				latest.put(files[file], ++journalID);
+			}
+			db.runInTransaction(() -> journalDAO.insert(entries));
+		}
+	}
+
+	@AfterAll
+	public static void afterAll() {
+		db.close();
+	}
+
+
+	//What SyncWatcher asks on every tick: anything new since the last sync?
+	@Test
+	public void latestForAccount_recent() {
+		int since = JOURNAL_ROWS - 1_000;
+		compare("Latest per file for an account, last 1000 entries", accounts[0], since);
+	}
+
+	//A first sync, or one after a long time offline
+	@Test
+	public void latestForAccount_everything() {
+		compare("Latest per file for an account, whole journal", accounts[0], 0);
+	}
+
+	//The same question, walked a page at a time the way SyncWatcher does now
+	@Test
+	public void latestForAccount_paged() {
+		long listTime = Long.MAX_VALUE;
+		List<LJournal> changes = null;
+		for(int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			changes = journalDAO.getLatestChangeFor(accounts[0], 0);
+			listTime = Math.min(listTime, System.nanoTime() - start);
+		}
+
+		long pagedTime = Long.MAX_VALUE;
+		List<LJournal> paged = null;
+		for(int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			paged = new ArrayList<>();
+			Iterator<LJournal> iterator = new KeysetIterator<>((last, limit) -> journalDAO.getLatestChangesPage(accounts[0],
+					last == null ? 0 : last.journalid, limit), 500);
+			while(iterator.hasNext())
+				paged.add(iterator.next());
+			pagedTime = Math.min(pagedTime, System.nanoTime() - start);
+		}
+
+		Assertions.assertEquals(changes.size(), paged.size());
+		for(int i = 0; i < changes.size(); i++)
+			Assertions.assertEquals(changes.get(i).journalid, paged.get(i).journalid);
+
+		System.out.println("=====================================================================");
+		System.out.printf("Latest per file for an account, whole journal, %d journal rows%n", JOURNAL_ROWS);
+		System.out.printf("  One list:         %8.2f ms, %d rows%n", listTime / 1e6, changes.size());
+		System.out.printf("  Pages of 500:     %8.2f ms%n", pagedTime / 1e6);
+		printPlan("SELECT * FROM journal AS j WHERE journalid > ? AND accountuid = ? AND NOT EXISTS (SELECT 1 FROM journal "+
+				"AS later WHERE later.fileuid = j.fileuid AND later.journalid > j.journalid) ORDER BY journalid LIMIT 500",
+				0, Utilities.uuidToBytes(accounts[0]));
+		System.out.println("=====================================================================");
+	}
+
+	@Test
+	public void latestForFiles() {
+		UUID[] someFiles = new UUID[50];
+		System.arraycopy(files, 0, someFiles, 0, someFiles.length);
+
+		long time = Long.MAX_VALUE;
+		List<LJournal> changes = null;
+		for(int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			changes = journalDAO.getLatestChangeFor(0, someFiles);
+			time = Math.min(time, System.nanoTime() - start);
+		}
+		for(LJournal change : changes)
+			Assertions.assertEquals((int) latest.get(change.fileuid), change.journalid);
+
+		System.out.println("=====================================================================");
+		System.out.printf("Latest per file for %d files, %d journal rows%n", someFiles.length, JOURNAL_ROWS);
+		System.out.printf("  Indexed MAX subquery: %8.2f ms, %d rows%n", time / 1e6, changes.size());
+		printPlan("SELECT * FROM journal WHERE journalid IN (SELECT MAX(journalid) FROM journal "+
+				"WHERE journalid > 0 AND fileuid IN (?) GROUP BY fileuid) ORDER BY journalid", Utilities.uuidToBytes(someFiles[0]));
+		System.out.println("=====================================================================");
+	}
+
+
+	//Lists an account of 500k files end to end, a keyset page at a time, then compares the deepest page against OFFSET.
+	//Uses its own database so the journal tests aren't sharing it with half a million files.
+	@Test
+	public void listFiles_wholeAccount() {
+		Context context = InstrumentationRegistry.getInstrumentation().getContext();
+		LocalDatabase fileDB = Room.inMemoryDatabaseBuilder(context, LocalDatabase.class).allowMainThreadQueries().build();
+		try {
+			//Another account's files are mixed in, so listing has to pick ours out of the table
+			UUID account = UUID.randomUUID();
+			UUID otherAccount = UUID.randomUUID();
+			for(int batch = 0; batch < (LISTED_FILES + OTHER_FILES) / 10_000; batch++) {
+				LFile[] batchFiles = new LFile[10_000];
+				for(int i = 0; i < batchFiles.length; i++)
+					batchFiles[i] = new LFile(UUID.randomUUID(), batch * 10_000 < LISTED_FILES ? account : otherAccount);
+				fileDB.runInTransaction(() -> { fileDB.getFileDao().put(batchFiles); });
+			}
+
+			long start = System.nanoTime();
+			int listed = 0;
+			int pages = 0;
+			UUID lastUID = null;
+			UUID deepestCursor = null;
+			while(true) {
+				List<LFile> page = lastUID == null
+						? fileDB.getFileDao().getByAccountPage(account, LIST_PAGE_SIZE)
+						: fileDB.getFileDao().getByAccountPage(account, lastUID, LIST_PAGE_SIZE);
+				listed += page.size();
+				pages++;
+				if(page.size() < LIST_PAGE_SIZE)
+					break;
+
+				deepestCursor = lastUID;
+				lastUID = page.get(page.size()-1).fileuid;
+			}
+			long listTime = System.nanoTime() - start;
+			Assertions.assertEquals(LISTED_FILES, listed);
+
+
+			//The last full page, both ways
+			int deepOffset = LISTED_FILES - LIST_PAGE_SIZE;
+			String offsetQuery = "SELECT * FROM file WHERE accountuid = ? ORDER BY fileuid LIMIT ? OFFSET ?";
+			String keysetQuery = "SELECT * FROM file WHERE accountuid = ? AND fileuid > ? ORDER BY fileuid LIMIT ?";
+			long offsetTime = Long.MAX_VALUE;
+			long keysetTime = Long.MAX_VALUE;
+			for(int i = 0; i < RUNS; i++) {
+				long offsetStart = System.nanoTime();
+				try (Cursor cursor = fileDB.query(offsetQuery, new Object[]{ Utilities.uuidToBytes(account), LIST_PAGE_SIZE, deepOffset })) {
+					while(cursor.moveToNext()) cursor.getBlob(0);
+				}
+				offsetTime = Math.min(offsetTime, System.nanoTime() - offsetStart);
+
+				long keysetStart = System.nanoTime();
+				try (Cursor cursor = fileDB.query(keysetQuery, new Object[]{ Utilities.uuidToBytes(account),
+						Utilities.uuidToBytes(deepestCursor), LIST_PAGE_SIZE })) {
+					while(cursor.moveToNext()) cursor.getBlob(0);
+				}
+				keysetTime = Math.min(keysetTime, System.nanoTime() - keysetStart);
+			}
+
+			System.out.println("=====================================================================");
+			System.out.printf("Listing an account of %d files, with %d more from another account%n", LISTED_FILES, OTHER_FILES);
+			System.out.printf("  Keyset, end to end: %8.2f ms over %d pages of %d%n", listTime / 1e6, pages, LIST_PAGE_SIZE);
+			System.out.printf("  Deepest page, OFFSET: %8.2f ms%n", offsetTime / 1e6);
+			System.out.printf("  Deepest page, keyset: %8.2f ms%n", keysetTime / 1e6);
+			List<String> plan = new ArrayList<>();
+			try (Cursor cursor = fileDB.query("EXPLAIN QUERY PLAN "+keysetQuery, new Object[]{ Utilities.uuidToBytes(account),
+					Utilities.uuidToBytes(deepestCursor), LIST_PAGE_SIZE })) {
+				while(cursor.moveToNext())
+					plan.add(cursor.getString(cursor.getColumnIndexOrThrow("detail")));
+			}
+			for(String step : plan)
+				System.out.println("    "+step);
+			System.out.println("=====================================================================");
+		} finally {
+			fileDB.close();
+		}
+	}
+
+
+	//UUID keys stored the old way, as TEXT, against the 16 byte BLOBs we use now.
+	//Room can only build one of these, so both are built by hand with the same shape as the file table.
+	@Test
+	public void uuidKeys_textVsBlob(@TempDir File tempDir) {
+		UUID[] keys = new UUID[UUID_KEY_ROWS];
+		for(int i = 0; i < keys.length; i++)
+			keys[i] = UUID.randomUUID();
+
+		KeyStats text = measureKeys(new File(tempDir, "text.db"), keys, false);
+		KeyStats blob = measureKeys(new File(tempDir, "blob.db"), keys, true);
+
+		System.out.println("=====================================================================");
+		System.out.printf("UUID keys, %d rows with a primary key and one indexed UUID column%n", keys.length);
+		System.out.printf("  TEXT: %8.2f MB, %8.2f us/lookup, %8.2f ms to read and parse every row%n",
+				text.bytes / (1024.0 * 1024.0), text.lookupNanos / 1e3, text.scanNanos / 1e6);
+		System.out.printf("  BLOB: %8.2f MB, %8.2f us/lookup, %8.2f ms to read and parse every row%n",
+				blob.bytes / (1024.0 * 1024.0), blob.lookupNanos / 1e3, blob.scanNanos / 1e6);
+		System.out.println("=====================================================================");
+
+		Assertions.assertTrue(blob.bytes < text.bytes);
+	}
+
+	private KeyStats measureKeys(File dbFile, UUID[] keys, boolean asBlob) {
+		String type = asBlob ? "BLOB" : "TEXT";
+		SQLiteDatabase sqlite = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+		try {
+			sqlite.execSQL("CREATE TABLE `file` (`fileuid` "+type+" NOT NULL, `accountuid` "+type+" NOT NULL, "+
+					"`filesize` INTEGER NOT NULL DEFAULT 0, PRIMARY KEY(`fileuid`))");
+			sqlite.execSQL("CREATE INDEX `index_file_accountuid` ON `file` (`accountuid`)");
+
+			UUID account = UUID.randomUUID();
+			sqlite.beginTransaction();
+			try (SQLiteStatement insert = sqlite.compileStatement("INSERT INTO `file` VALUES (?, ?, ?)")) {
+				for(int i = 0; i < keys.length; i++) {
+					bindUUID(insert, 1, keys[i], asBlob);
+					bindUUID(insert, 2, account, asBlob);
+					insert.bindLong(3, i);
+					insert.executeInsert();
+				}
+				sqlite.setTransactionSuccessful();
+			} finally {
+				sqlite.endTransaction();
+			}
+
+			KeyStats stats = new KeyStats();
+			stats.bytes = dbFile.length();
+
+			Random random = new Random(0);
+			try (SQLiteStatement lookup = sqlite.compileStatement("SELECT `filesize` FROM `file` WHERE `fileuid` = ?")) {
+				long start = System.nanoTime();
+				for(int i = 0; i < LOOKUPS; i++) {
+					bindUUID(lookup, 1, keys[random.nextInt(keys.length)], asBlob);
+					lookup.simpleQueryForLong();
+				}
+				stats.lookupNanos = (System.nanoTime() - start) / LOOKUPS;
+			}
+
+			//What every Room read pays to turn the keys back into UUIDs
+			long start = System.nanoTime();
+			try (Cursor cursor = sqlite.rawQuery("SELECT `fileuid`, `accountuid` FROM `file`", null)) {
+				while(cursor.moveToNext()) {
+					if(asBlob) {
+						Utilities.bytesToUUID(cursor.getBlob(0));
+						Utilities.bytesToUUID(cursor.getBlob(1));
+					} else {
+						UUID.fromString(cursor.getString(0));
+						UUID.fromString(cursor.getString(1));
+					}
+				}
+			}
+			stats.scanNanos = System.nanoTime() - start;
+			return stats;
+		} finally {
+			sqlite.close();
+		}
+	}
+
+	private void bindUUID(SQLiteStatement statement, int index, UUID uuid, boolean asBlob) {
+		if(asBlob)
+			statement.bindBlob(index, Utilities.uuidToBytes(uuid));
+		else
+			statement.bindString(index, uuid.toString());
+	}
+
+	private static class KeyStats {
+		long bytes;
+		long lookupNanos;
+		long scanNanos;
+	}
+
+
+	private void compare(String label, UUID account, int since) {
+		//The old query against the old schema, which had no journal indexes.
+		//It's also wrong: bare columns come from whichever row in the group SQLite feels like.
+		String oldQuery = "SELECT journalid FROM journal NOT INDEXED WHERE journalid > ? AND accountuid = ? "+
+				"GROUP BY fileuid ORDER BY MAX(journalid)";
+		long oldTime = Long.MAX_VALUE;
+		for(int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			try (Cursor cursor = db.query(oldQuery, new Object[]{ since, Utilities.uuidToBytes(account) })) {
+				while(cursor.moveToNext()) cursor.getInt(0);
+			}
+			oldTime = Math.min(oldTime, System.nanoTime() - start);
+		}
+
+		long newTime = Long.MAX_VALUE;
+		List<LJournal> changes = null;
+		for(int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			changes = journalDAO.getLatestChangeFor(account, since);
+			newTime = Math.min(newTime, System.nanoTime() - start);
+		}
+
+		//Every row should be the latest for its file, in journal order
+		int last = since;
+		for(LJournal change : changes) {
+			Assertions.assertEquals((int) latest.get(change.fileuid), change.journalid);
+			Assertions.assertTrue(change.journalid > last);
+			last = change.journalid;
+		}
+
+		System.out.println("=====================================================================");
+		System.out.printf("%s, %d journal rows%n", label, JOURNAL_ROWS);
+		System.out.printf("  GROUP BY bare columns: %8.2f ms%n", oldTime / 1e6);
+		System.out.printf("  Indexed MAX subquery:  %8.2f ms, %d rows%n", newTime / 1e6, changes.size());
+		printPlan("SELECT * FROM journal WHERE journalid IN (SELECT MAX(journalid) FROM journal "+
+				"WHERE journalid > ? AND accountuid = ? GROUP BY fileuid) ORDER BY journalid", since, Utilities.uuidToBytes(account));
+		System.out.println("=====================================================================");
+	}
+
+	private void printPlan(String query, Object... args) {
+		List<String> plan = new ArrayList<>();
+		try (Cursor cursor = db.query("EXPLAIN QUERY PLAN "+query, args)) {
+			while(cursor.moveToNext())
+				plan.add(cursor.getString(cursor.getColumnIndexOrThrow("detail")));
+		}
+		for(String step : plan)
+			System.out.println("    "+step);
+	}
+}
@@ -0,0 +1,230 @@
+package aaa.sgordon.hybridrepo;
+
+import android.os.Debug;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import aaa.sgordon.hybridrepo.hashing.Blake3;
+import aaa.sgordon.hybridrepo.hashing.ContentHasher;
+import aaa.sgordon.hybridrepo.hashing.HashAlgorithm;
+import aaa.sgordon.hybridrepo.hashing.Hex;
+
+//Compares content hash throughput across algorithms and file sizes, and how much garbage each checksum leaves behind.
+//Files are written once and hashed a few times each, so after the first pass they're coming from the page cache
+// and this measures the hashing itself rather than the disk.
+public class HashingBenchmark {
+	private static final int ROUNDS = 3;
+	private static final int ALLOCATION_HASHES = 100_000;
+
+
+	@Test
+	public void blake3_matchesReference() {
+		//From the official test vectors
+		Assertions.assertEquals("blake3:AF1349B9F5F9A1A6A0404DEA36DCC9499BCB25C9ADC112B7CC9A93CAE41F3262",
+				HashAlgorithm.BLAKE3.hash(new byte[0]));
+
+		byte[] data = new byte[102400];
+		for(int i = 0; i < data.length; i++)
+			data[i] = (byte) (i % 251);
+		Assertions.assertEquals("blake3:BC3E3D41A1146B069ABFFAD3C0D44860CF664390AFCE4D9661F7902E7943E085",
+				HashAlgorithm.BLAKE3.hash(data));
+	}
+
+	@Test
+	public void blake3_parallelMatchesSequential(@TempDir File tempDir) throws IOException {
+		for(int size : new int[] {0, 1, 1024, 1025, 1024 * 1024 + 1, 5 * 1024 * 1024 + 17}) {
+			File file = createFile(tempDir, size);
+			byte[] data = Files.readAllBytes(file.toPath());
+			Assertions.assertEquals(HashAlgorithm.BLAKE3.hash(data), HashAlgorithm.BLAKE3.hashFile(file), "Size="+size);
+		}
+	}
+
+	@Test
+	public void checksums_keepTheirAlgorithm() {
+		String sha = HashAlgorithm.SHA256.hash(new byte[] {1, 2, 3});
+		String blake = HashAlgorithm.BLAKE3.hash(new byte[] {1, 2, 3});
+
+		Assertions.assertEquals(HashAlgorithm.SHA256, HashAlgorithm.of(sha));
+		Assertions.assertEquals(HashAlgorithm.BLAKE3, HashAlgorithm.of(blake));
+		Assertions.assertEquals(64, HashAlgorithm.hexOf(sha).length());
+		Assertions.assertEquals(64, HashAlgorithm.hexOf(blake).length());
+	}
+
+
+	@Test
+	public void throughput_1MB(@TempDir File tempDir) throws IOException {
+		compareAlgorithms(tempDir, 1024 * 1024);
+	}
+
+	@Test
+	public void throughput_64MB(@TempDir File tempDir) throws IOException {
+		compareAlgorithms(tempDir, 64 * 1024 * 1024);
+	}
+
+	@Test
+	public void throughput_1GB(@TempDir File tempDir) throws IOException {
+		compareAlgorithms(tempDir, 1024 * 1024 * 1024);
+	}
+
+
+	//Bulk syncs hash lots of small things, where the garbage from each hash costs more than the hashing itself
+	@Test
+	public void allocations_smallChecksums() {
+		byte[] data = new byte[256];
+		new Random(0).nextBytes(data);
+
+		//Both should agree before we bother comparing them
+		Assertions.assertEquals(unpooledChecksum(data), HashAlgorithm.SHA256.hash(data));
+
+		Allocations before = measureAllocations(() -> unpooledChecksum(data));
+		Allocations after = measureAllocations(() -> HashAlgorithm.SHA256.hash(data));
+
+		System.out.println("=====================================================================");
+		System.out.printf("SHA-256 checksums of %d bytes, %d hashes%n", data.length, ALLOCATION_HASHES);
+		System.out.printf("  getInstance + hex copy: %6.2f allocs/hash, %8.1f bytes/hash, %8.0f ns/hash%n",
+				before.perHash(), before.bytesPerHash(), before.nanosPerHash());
+		System.out.printf("  Pooled:                 %6.2f allocs/hash, %8.1f bytes/hash, %8.0f ns/hash%n",
+				after.perHash(), after.bytesPerHash(), after.nanosPerHash());
+		System.out.println("=====================================================================");
+
+		Assertions.assertTrue(after.count < before.count);
+	}
+
+	@Test
+	public void allocations_hexEncoding() {
+		byte[] digest = new byte[32];
+		new Random(0).nextBytes(digest);
+		char[] buffer = new char[64];
+
+		Allocations before = measureAllocations(() -> Utilities.bytesToHex(digest));
+		Allocations after = measureAllocations(() -> Hex.encode(digest, 0, digest.length, buffer, 0));
+
+		System.out.println("=====================================================================");
+		System.out.printf("Hex encoding a 32 byte digest, %d times%n", ALLOCATION_HASHES);
+		System.out.printf("  To a String:       %6.2f allocs/encode, %8.1f bytes/encode%n", before.perHash(), before.bytesPerHash());
+		System.out.printf("  Into a buffer:     %6.2f allocs/encode, %8.1f bytes/encode%n", after.perHash(), after.bytesPerHash());
+		System.out.println("=====================================================================");
+
+		Assertions.assertEquals(0, after.count);
+	}
+
+
+	//How every checksum used to be computed
+	private static String unpooledChecksum(byte[] data) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(data);
+			byte[] hexChars = new byte[hash.length * 2];
+			Hex.encode(hash, 0, hash.length, hexChars, 0);
+			return new String(hexChars, StandardCharsets.UTF_8);
+		} catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+	}
+
+	//Counts allocations on this thread only, after a warmup so class loading and pool filling don't count.
+	//ART's allocation counters are the closest thing we have to a JMH allocation profiler on device.
+	@SuppressWarnings("deprecation")
+	private Allocations measureAllocations(Runnable hash) {
+		for(int i = 0; i < ALLOCATION_HASHES; i++)
+			hash.run();
+
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		long start = System.nanoTime();
+		for(int i = 0; i < ALLOCATION_HASHES; i++)
+			hash.run();
+		long time = System.nanoTime() - start;
+		Debug.stopAllocCounting();
+
+		return new Allocations(Debug.getThreadAllocCount(), Debug.getThreadAllocSize(), time);
+	}
+
+	private static class Allocations {
+		final long count;
+		final long bytes;
+		final long nanos;
+
+		Allocations(long count, long bytes, long nanos) {
+			this.count = count;
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+
+		double perHash() { return count / (double) ALLOCATION_HASHES; }
+		double bytesPerHash() { return bytes / (double) ALLOCATION_HASHES; }
+		double nanosPerHash() { return nanos / (double) ALLOCATION_HASHES; }
+	}
+
+
+	private void compareAlgorithms(File tempDir, long size) throws IOException {
+		File file = createFile(tempDir, size);
+		double mb = size / (1024.0 * 1024.0);
+
+		String sha = null, sequential = null, parallel = null;
+		long shaTime = Long.MAX_VALUE, sequentialTime = Long.MAX_VALUE, parallelTime = Long.MAX_VALUE;
+		for(int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			sha = HashAlgorithm.SHA256.hashFile(file);
+			shaTime = Math.min(shaTime, System.nanoTime() - start);
+
+			//Streaming through the incremental hasher, one core
+			start = System.nanoTime();
+			sequential = streamFile(file, HashAlgorithm.BLAKE3.newHasher());
+			sequentialTime = Math.min(sequentialTime, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				parallel = Utilities.bytesToHex(Blake3.hashParallel(channel, size, ForkJoinPool.commonPool()));
+			}
+			parallelTime = Math.min(parallelTime, System.nanoTime() - start);
+		}
+		Assertions.assertNotNull(sha);
+		Assertions.assertEquals(sequential, HashAlgorithm.BLAKE3.prefix + parallel);
+
+		System.out.println("=====================================================================");
+		System.out.printf("Hashing a %.0f MB file on %d cores%n", mb, Runtime.getRuntime().availableProcessors());
+		System.out.printf("  SHA-256:           %8.2f MB/s%n", mb / (shaTime / 1e9));
+		System.out.printf("  BLAKE3 sequential: %8.2f MB/s%n", mb / (sequentialTime / 1e9));
+		System.out.printf("  BLAKE3 parallel:   %8.2f MB/s%n", mb / (parallelTime / 1e9));
+		System.out.println("=====================================================================");
+	}
+
+
+	private String streamFile(File file, ContentHasher hasher) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(65536);
+			while(channel.read(buffer) != -1) {
+				buffer.flip();
+				hasher.update(buffer);
+				buffer.clear();
+			}
+		}
+		return hasher.finish();
+	}
+
+	private File createFile(File tempDir, long size) throws IOException {
+		File file = new File(tempDir, "hash-"+size);
+		Random random = new Random(size);
+		byte[] buffer = new byte[1024 * 1024];
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			for(long written = 0; written < size; written += buffer.length) {
+				random.nextBytes(buffer);
+				out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+			}
+		}
+		return file;
+	}
+}
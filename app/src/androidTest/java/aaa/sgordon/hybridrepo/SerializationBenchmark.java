@@ -0,0 +1,106 @@
+package aaa.sgordon.hybridrepo;
+
+import android.content.Context;
+
+import androidx.room.Room;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import aaa.sgordon.hybridrepo.local.database.LocalConverters;
+import aaa.sgordon.hybridrepo.local.database.LocalDatabase;
+import aaa.sgordon.hybridrepo.local.types.LFile;
+
+//Times loading a page of file rows, which converts every row's attributes from JSON,
+// along with the old Gson-per-value conversion for comparison.
+public class SerializationBenchmark {
+	private static final int FILES = 500;
+	private static final int ATTRIBUTES = 20;
+	private static final int RUNS = 200;
+
+	private static LocalDatabase db;
+	private static UUID accountUID;
+	private static List<String> serializedAttrs;
+
+
+	@BeforeAll
+	public static void beforeAll() {
+		Context context = InstrumentationRegistry.getInstrumentation().getContext();
+		db = Room.inMemoryDatabaseBuilder(context, LocalDatabase.class).allowMainThreadQueries().build();
+
+		accountUID = UUID.randomUUID();
+		serializedAttrs = new ArrayList<>();
+		LFile[] files = new LFile[FILES];
+		for(int i = 0; i < FILES; i++) {
+			files[i] = new LFile(UUID.randomUUID(), accountUID);
+			for(int j = 0; j < ATTRIBUTES; j++)
+				files[i].userattr.addProperty("attribute"+j, "Some value for attribute "+j+" of file "+i);
+			serializedAttrs.add(files[i].userattr.toString());
+		}
+		db.getFileDao().put(files);
+	}
+
+	@AfterAll
+	public static void afterAll() {
+		db.close();
+	}
+
+
+	@Test
+	public void bulkLoad_files() {
+		//Warm up, so both sides are measured with their classes loaded and adapters built
+		for(int i = 0; i < 10; i++)
+			db.getFileDao().getByAccount(accountUID);
+
+		long start = System.nanoTime();
+		for(int i = 0; i < RUNS; i++)
+			Assertions.assertEquals(FILES, db.getFileDao().getByAccount(accountUID).size());
+		long loadTime = System.nanoTime() - start;
+
+		System.out.println("=====================================================================");
+		System.out.printf("Loading %d file rows with %d attributes each%n", FILES, ATTRIBUTES);
+		System.out.printf("  getByAccount: %8.2f ms/page%n", loadTime / 1e6 / RUNS);
+		System.out.println("=====================================================================");
+	}
+
+	@Test
+	public void converters_sharedVsPerValue() {
+		long perValue = timeConversions(true);
+		long shared = timeConversions(false);
+
+		System.out.println("=====================================================================");
+		System.out.printf("Converting %d attribute columns from JSON%n", FILES);
+		System.out.printf("  New Gson per value: %8.2f ms/page%n", perValue / 1e6 / RUNS);
+		System.out.printf("  Shared adapters:    %8.2f ms/page%n", shared / 1e6 / RUNS);
+		System.out.println("=====================================================================");
+	}
+
+	private long timeConversions(boolean gsonPerValue) {
+		for(String attrs : serializedAttrs)
+			convert(attrs, gsonPerValue);
+
+		long start = System.nanoTime();
+		for(int i = 0; i < RUNS; i++) {
+			for(String attrs : serializedAttrs)
+				Assertions.assertEquals(ATTRIBUTES, convert(attrs, gsonPerValue).size());
+		}
+		return System.nanoTime() - start;
+	}
+
+	private JsonObject convert(String attrs, boolean gsonPerValue) {
+		//How the converters used to do it
+		if(gsonPerValue)
+			return new Gson().fromJson(attrs, JsonObject.class);
+		return LocalConverters.toJsonObject(attrs);
+	}
+}
@@ -0,0 +1,83 @@
+package aaa.sgordon.hybridrepo.hybrid.database;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.UUID;
+
+import aaa.sgordon.hybridrepo.Utilities;
+
+//Runs HybridHelpDatabase's migrations against the schemas Room exported for each version (app/schemas).
+public class HybridHelpDatabaseMigrationTest {
+	private static final String TEST_DB = "migration-test.db";
+
+	private Context context;
+	private MigrationTestHelper helper;
+
+
+	@BeforeEach
+	public void beforeEach() {
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		helper = new MigrationTestHelper(InstrumentationRegistry.getInstrumentation(), HybridHelpDatabase.class);
+	}
+
+	@AfterEach
+	public void afterEach() {
+		context.deleteDatabase(TEST_DB);
+	}
+
+
+	@Test
+	public void migrate1To2_convertsEveryUUID() throws IOException {
+		UUID local = UUID.randomUUID();
+		UUID remote = UUID.randomUUID();
+
+		try (SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 1)) {
+			db.execSQL("INSERT INTO zone (fileuid, isLocal, isRemote) VALUES (?, 1, 0)", new Object[]{ local.toString() });
+			db.execSQL("INSERT INTO zone (fileuid, isLocal, isRemote) VALUES (?, 0, 1)", new Object[]{ remote.toString() });
+		}
+
+		try (SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, 2, true, HybridHelpDatabase.MIGRATION_1_2)) {
+			try (Cursor cursor = db.query("SELECT COUNT(*) FROM zone WHERE typeof(fileuid) != 'blob' OR length(fileuid) != 16")) {
+				cursor.moveToFirst();
+				Assertions.assertEquals(0, cursor.getInt(0));
+			}
+			try (Cursor cursor = db.query("SELECT isLocal, isRemote FROM zone WHERE fileuid = ?",
+					new Object[]{ Utilities.uuidToBytes(remote) })) {
+				Assertions.assertTrue(cursor.moveToFirst());
+				Assertions.assertEquals(0, cursor.getInt(0));
+				Assertions.assertEquals(1, cursor.getInt(1));
+			}
+		}
+	}
+
+	@Test
+	public void migrate1To2_readsThroughRoom() throws IOException {
+		UUID fileUID = UUID.randomUUID();
+		try (SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 1)) {
+			db.execSQL("INSERT INTO zone (fileuid, isLocal, isRemote) VALUES (?, 1, 1)", new Object[]{ fileUID.toString() });
+		}
+
+		HybridHelpDatabase db = Room.databaseBuilder(context, HybridHelpDatabase.class, TEST_DB)
+				.addMigrations(HybridHelpDatabase.MIGRATION_1_2).allowMainThreadQueries().build();
+		try {
+			HZone zone = db.getZoningDao().get(fileUID);
+			Assertions.assertNotNull(zone);
+			Assertions.assertTrue(zone.isLocal);
+			Assertions.assertTrue(zone.isRemote);
+		} finally {
+			db.close();
+		}
+	}
+}
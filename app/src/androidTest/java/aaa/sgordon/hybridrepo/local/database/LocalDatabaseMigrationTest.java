@@ -0,0 +1,203 @@
+package aaa.sgordon.hybridrepo.local.database;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.room.migration.Migration;
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import aaa.sgordon.hybridrepo.Utilities;
+import aaa.sgordon.hybridrepo.local.types.LContent;
+import aaa.sgordon.hybridrepo.local.types.LFile;
+import aaa.sgordon.hybridrepo.local.types.LJournal;
+
+//Runs LocalDatabase's migrations against the schemas Room exported for each version (app/schemas).
+//MigrationTestHelper is a JUnit4 rule, so it's used directly here and the database is removed after each test.
+public class LocalDatabaseMigrationTest {
+	private static final String TEST_DB = "migration-test.db";
+	private static final int LATEST = 12;
+
+	private Context context;
+	private MigrationTestHelper helper;
+
+
+	@BeforeEach
+	public void beforeEach() {
+		context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		helper = new MigrationTestHelper(InstrumentationRegistry.getInstrumentation(), LocalDatabase.class);
+	}
+
+	@AfterEach
+	public void afterEach() {
+		context.deleteDatabase(TEST_DB);
+	}
+
+
+	@Test
+	public void migrations_coverEveryVersion() {
+		Assertions.assertEquals(LATEST - 1, LocalDatabase.MIGRATIONS.length);
+		for(int i = 0; i < LocalDatabase.MIGRATIONS.length; i++) {
+			Assertions.assertEquals(i + 1, LocalDatabase.MIGRATIONS[i].startVersion);
+			Assertions.assertEquals(i + 2, LocalDatabase.MIGRATIONS[i].endVersion);
+		}
+	}
+
+	//Each step validated against the schema of the version it lands on, so a mistake shows up where it was made
+	@Test
+	public void migrate_eachVersion() throws IOException {
+		helper.createDatabase(TEST_DB, 1).close();
+
+		for(Migration migration : LocalDatabase.MIGRATIONS)
+			helper.runMigrationsAndValidate(TEST_DB, migration.endVersion, true, migration).close();
+	}
+
+	@Test
+	public void migrate_1ToLatest_keepsRows() throws IOException {
+		UUID accountUID = UUID.randomUUID();
+		UUID fileUID = UUID.randomUUID();
+		UUID dirUID = UUID.randomUUID();
+
+		try (SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 1)) {
+			db.execSQL("INSERT INTO account (accountuid, rootfileuid) VALUES (?, ?)",
+					new Object[]{ accountUID.toString(), dirUID.toString() });
+			db.execSQL("INSERT INTO file (fileuid, accountuid, isdir, checksum, filesize, modifytime, accesstime, createtime) " +
+					"VALUES (?, ?, 0, 'abc', 3, 200, 300, 100)", new Object[]{ fileUID.toString(), accountUID.toString() });
+			db.execSQL("INSERT INTO file (fileuid, accountuid, isdir, createtime) VALUES (?, ?, 1, 100)",
+					new Object[]{ dirUID.toString(), accountUID.toString() });
+			db.execSQL("INSERT INTO journal (fileuid, accountuid, changes) VALUES (?, ?, ?)",
+					new Object[]{ fileUID.toString(), accountUID.toString(), "{\"checksum\":\"abc\",\"filesize\":3}" });
+			db.execSQL("INSERT INTO journal (fileuid, accountuid, changes) VALUES (?, ?, ?)",
+					new Object[]{ dirUID.toString(), accountUID.toString(), "{\"isdeleted\":true}" });
+			db.execSQL("INSERT INTO content (name, checksum, size) VALUES ('abc', 'abc', 3)");
+		}
+
+		//Migrated the way the app does it, so Room checks the result against the entities themselves
+		LocalDatabase db = Room.databaseBuilder(context, LocalDatabase.class, TEST_DB)
+				.addMigrations(LocalDatabase.MIGRATIONS).allowMainThreadQueries().build();
+		try {
+			Assertions.assertEquals(dirUID, db.getAccountDao().loadByUID(accountUID).rootfileuid);
+
+			LFile file = db.getFileDao().get(fileUID);
+			Assertions.assertEquals(accountUID, file.accountuid);
+			Assertions.assertEquals("abc", file.checksum);
+			Assertions.assertEquals(300L, file.getLastused());
+			Assertions.assertEquals(100L, db.getFileDao().get(dirUID).getLastused());
+
+			List<LJournal> changes = db.getJournalDao().getAllChangesFor(accountUID, 0);
+			Assertions.assertEquals(2, changes.size());
+			Assertions.assertEquals(LJournal.KIND_CONTENT, changes.get(0).changekind);
+			Assertions.assertEquals("abc", changes.get(0).newchecksum);
+			Assertions.assertEquals(LJournal.KIND_DELETE, changes.get(1).changekind);
+			Assertions.assertTrue(changes.get(1).isdeleted);
+
+			LContent content = db.getContentDao().get("abc");
+			Assertions.assertEquals(LContent.CODEC_NONE, content.codec);
+			Assertions.assertEquals(3, content.storedsize);
+			Assertions.assertFalse(content.chunked);
+			Assertions.assertFalse(content.packed);
+			Assertions.assertNull(content.wholecopytime);
+		} finally {
+			db.close();
+		}
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+	// UUIDs as BLOBs
+	//---------------------------------------------------------------------------------------------
+
+	@Test
+	public void migrate7To8_convertsEveryUUID() throws IOException {
+		UUID[] accounts = { UUID.randomUUID(), UUID.randomUUID() };
+		List<UUID> files = new ArrayList<>();
+		for(int i = 0; i < 200; i++)
+			files.add(UUID.randomUUID());
+
+		try (SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 7)) {
+			for(UUID account : accounts)
+				db.execSQL("INSERT INTO account (accountuid, rootfileuid) VALUES (?, ?)",
+						new Object[]{ account.toString(), files.get(0).toString() });
+			for(int i = 0; i < files.size(); i++) {
+				String account = accounts[i % 2].toString();
+				db.execSQL("INSERT INTO file (fileuid, accountuid) VALUES (?, ?)", new Object[]{ files.get(i).toString(), account });
+				db.execSQL("INSERT INTO journal (fileuid, accountuid, changes) VALUES (?, ?, '{}')",
+						new Object[]{ files.get(i).toString(), account });
+			}
+		}
+
+		//Also checks every index on the rebuilt tables came back
+		try (SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, 8, true, LocalDatabase.MIGRATION_7_8)) {
+			assertAllBlobs(db, "account", "accountuid", "rootfileuid");
+			assertAllBlobs(db, "file", "fileuid", "accountuid");
+			assertAllBlobs(db, "journal", "fileuid", "accountuid");
+
+			//Rows kept their rowids, so each journalid still points at the file it did before
+			for(int i = 0; i < files.size(); i++) {
+				try (Cursor cursor = db.query("SELECT fileuid, accountuid FROM journal WHERE journalid = ?", new Object[]{ i + 1 })) {
+					Assertions.assertTrue(cursor.moveToFirst());
+					Assertions.assertArrayEquals(Utilities.uuidToBytes(files.get(i)), cursor.getBlob(0));
+					Assertions.assertArrayEquals(Utilities.uuidToBytes(accounts[i % 2]), cursor.getBlob(1));
+				}
+			}
+			try (Cursor cursor = db.query("SELECT COUNT(*) FROM file WHERE accountuid = ?",
+					new Object[]{ Utilities.uuidToBytes(accounts[0]) })) {
+				cursor.moveToFirst();
+				Assertions.assertEquals(files.size() / 2, cursor.getInt(0));
+			}
+		}
+	}
+
+	@Test
+	public void migrate7To8_keepsJournalIDsCounting() throws IOException {
+		String fileUID = UUID.randomUUID().toString();
+		String accountUID = UUID.randomUUID().toString();
+
+		try (SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 7)) {
+			for(int i = 0; i < 5; i++)
+				db.execSQL("INSERT INTO journal (fileuid, accountuid) VALUES (?, ?)", new Object[]{ fileUID, accountUID });
+			db.execSQL("DELETE FROM journal WHERE journalid > 3");
+		}
+
+		try (SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, 8, true, LocalDatabase.MIGRATION_7_8)) {
+			db.execSQL("INSERT INTO journal (fileuid, accountuid) VALUES (?, ?)",
+					new Object[]{ Utilities.uuidToBytes(UUID.fromString(fileUID)), Utilities.uuidToBytes(UUID.fromString(accountUID)) });
+			try (Cursor cursor = db.query("SELECT MAX(journalid) FROM journal")) {
+				cursor.moveToFirst();
+				Assertions.assertEquals(6, cursor.getInt(0));
+			}
+		}
+	}
+
+	@Test
+	public void migrate7To8_emptyTables() throws IOException {
+		helper.createDatabase(TEST_DB, 7).close();
+		helper.runMigrationsAndValidate(TEST_DB, 8, true, LocalDatabase.MIGRATION_7_8).close();
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+
+	private static void assertAllBlobs(SupportSQLiteDatabase db, String table, String... columns) {
+		for(String column : columns) {
+			try (Cursor cursor = db.query("SELECT COUNT(*) FROM `"+table+"` WHERE typeof(`"+column+"`) != 'blob' " +
+					"OR length(`"+column+"`) != 16")) {
+				cursor.moveToFirst();
+				Assertions.assertEquals(0, cursor.getInt(0), table+"."+column+" in "+Arrays.toString(columns));
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package aaa.sgordon.hybridrepo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+//The one Gson everything shares. Gson is thread safe and caches the adapter for every type it's seen, but only per
+// instance, so building a new one per call threw all of that away and re-reflected every class each time.
+//The adapters the database converters use on every row are looked up once, up front.
+public final class Json {
+	public static final Gson gson = new Gson();
+
+	private static final TypeAdapter<JsonElement> elementAdapter = gson.getAdapter(JsonElement.class);
+	private static final TypeAdapter<List<String>> stringListAdapter = gson.getAdapter(new TypeToken<List<String>>() {});
+	private static final TypeAdapter<Map<String, Object>> mapAdapter = gson.getAdapter(new TypeToken<Map<String, Object>>() {});
+
+	private Json() {}
+
+
+	//Serializes any model object, e.g. for toJson()
+	@NonNull
+	public static JsonObject toJsonObject(@NonNull Object object) {
+		return gson.toJsonTree(object).getAsJsonObject();
+	}
+
+
+	@Nullable
+	public static JsonObject parseObject(@Nullable String value) {
+		if(value == null || value.isEmpty()) return null;
+		try {
+			JsonElement element = elementAdapter.fromJson(value);
+			return element == null || element.isJsonNull() ? null : element.getAsJsonObject();
+		} catch (IOException e) { throw new RuntimeException(e); }
+	}
+
+	@Nullable
+	public static List<String> parseStringList(@Nullable String value) {
+		if(value == null) return null;
+		try {
+			return stringListAdapter.fromJson(value);
+		} catch (IOException e) { throw new RuntimeException(e); }
+	}
+
+	@Nullable
+	public static String stringListToJson(@Nullable List<String> list) {
+		if(list == null) return null;
+		return stringListAdapter.toJson(list);
+	}
+
+	@Nullable
+	public static Map<String, Object> parseMap(@Nullable String value) {
+		if(value == null) return null;
+		try {
+			return mapAdapter.fromJson(value);
+		} catch (IOException e) { throw new RuntimeException(e); }
+	}
+
+	@Nullable
+	public static String mapToJson(@Nullable Map<String, Object> map) {
+		if(map == null) return null;
+		return mapAdapter.toJson(map);
+	}
+}
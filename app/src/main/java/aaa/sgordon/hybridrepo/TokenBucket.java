@@ -0,0 +1,39 @@
+package aaa.sgordon.hybridrepo;
+
+//Limits throughput to a steady rate, e.g. bytes read per second, while still allowing short bursts.
+//Safe to share between threads, so several workers can draw from one budget.
+public class TokenBucket {
+	private final long ratePerSecond;
+	private final long capacity;
+
+	private double tokens;
+	private long lastRefill;
+
+	public TokenBucket(long ratePerSecond, long capacity) {
+		if(ratePerSecond <= 0) throw new IllegalArgumentException("Rate must be positive!");
+
+		this.ratePerSecond = ratePerSecond;
+		this.capacity = Math.max(1, capacity);
+		this.tokens = this.capacity;
+		this.lastRefill = System.nanoTime();
+	}
+
+
+	//Blocks until the given number of tokens are available, then takes them.
+	//Requests bigger than the bucket are allowed, they just wait for a full bucket and leave it in debt.
+	public synchronized void acquire(long count) throws InterruptedException {
+		refill();
+		while(tokens < Math.min(count, capacity)) {
+			long waitNanos = (long) ((Math.min(count, capacity) - tokens) * 1e9 / ratePerSecond);
+			wait(Math.max(1, waitNanos / 1_000_000), (int) (waitNanos % 1_000_000));
+			refill();
+		}
+		tokens -= count;
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+		tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerSecond / 1e9);
+		lastRefill = now;
+	}
+}
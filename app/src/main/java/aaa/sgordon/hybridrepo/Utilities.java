@@ -2,30 +2,50 @@ package aaa.sgordon.hybridrepo;
 
 import androidx.annotation.NonNull;
 
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.UUID;
+
+import aaa.sgordon.hybridrepo.hashing.HashAlgorithm;
+import aaa.sgordon.hybridrepo.hashing.Hex;
 
 public class Utilities {
 
 
+	//SHA-256, using a pooled digest
 	public static String computeChecksum(@NonNull byte[] data) {
-		try {
-			byte[] hash = MessageDigest.getInstance("SHA-256").digest(data);
-			return bytesToHex(hash);
-		} catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+		return HashAlgorithm.SHA256.hash(data);
 	}
 
-	//https://stackoverflow.com/a/9855338
-	private static final byte[] HEX_ARRAY = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+	//See Hex for encoding into an existing buffer
 	public static String bytesToHex(@NonNull byte[] bytes) {
-		byte[] hexChars = new byte[bytes.length * 2];
-		for (int j = 0; j < bytes.length; j++) {
-			int v = bytes[j] & 0xFF;
-			hexChars[j * 2] = HEX_ARRAY[v >>> 4];
-			hexChars[j * 2 + 1] = HEX_ARRAY[v & 0x0F];
+		return Hex.encode(bytes);
+	}
+
+
+	//UUIDs are stored in the databases as their 16 raw bytes, most significant first
+	@NonNull
+	public static byte[] uuidToBytes(@NonNull UUID uuid) {
+		byte[] bytes = new byte[16];
+		long msb = uuid.getMostSignificantBits();
+		long lsb = uuid.getLeastSignificantBits();
+		for(int i = 0; i < 8; i++) {
+			bytes[i] = (byte) (msb >>> (56 - i*8));
+			bytes[8 + i] = (byte) (lsb >>> (56 - i*8));
+		}
+		return bytes;
+	}
+
+	@NonNull
+	public static UUID bytesToUUID(@NonNull byte[] bytes) {
+		if(bytes.length != 16)
+			throw new IllegalArgumentException("UUIDs are 16 bytes, got "+bytes.length);
+
+		long msb = 0;
+		long lsb = 0;
+		for(int i = 0; i < 8; i++) {
+			msb = (msb << 8) | (bytes[i] & 0xFF);
+			lsb = (lsb << 8) | (bytes[8 + i] & 0xFF);
 		}
-		return new String(hexChars, StandardCharsets.UTF_8);
+		return new UUID(msb, lsb);
 	}
 }
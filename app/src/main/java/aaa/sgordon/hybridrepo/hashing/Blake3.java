@@ -0,0 +1,360 @@
+package aaa.sgordon.hybridrepo.hashing;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+//Pure java BLAKE3, default (unkeyed) hashing mode with a 32 byte output. Follows the reference implementation:
+//https://github.com/BLAKE3-team/BLAKE3/blob/master/reference_impl/reference_impl.rs
+//
+//BLAKE3 splits its input into 1KB chunks and combines them up a binary tree, where each left subtree is the largest
+// power of 2 number of chunks that still leaves something for the right. Subtrees don't depend on each other, so
+// hashParallel() hashes large files across cores and gets the exact same result as hashing them in one stream.
+public final class Blake3 {
+	public static final int OUT_LEN = 32;
+	private static final int BLOCK_LEN = 64;
+	private static final int CHUNK_LEN = 1024;
+
+	private static final int CHUNK_START = 1;
+	private static final int CHUNK_END = 2;
+	private static final int PARENT = 4;
+	private static final int ROOT = 8;
+
+	private static final int[] IV = {
+			0x6A09E667, 0xBB67AE85, 0x3C6EF372, 0xA54FF53A, 0x510E527F, 0x9B05688C, 0x1F83D9AB, 0x5BE0CD19
+	};
+
+	//Message word order for each of the 7 rounds, with the permutation already applied
+	private static final int[][] SCHEDULE = new int[7][16];
+	static {
+		int[] permutation = {2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8};
+		for(int i = 0; i < 16; i++)
+			SCHEDULE[0][i] = i;
+		for(int round = 1; round < 7; round++) {
+			for(int i = 0; i < 16; i++)
+				SCHEDULE[round][i] = SCHEDULE[round-1][permutation[i]];
+		}
+	}
+
+	//Subtrees smaller than this are hashed on whatever thread reaches them
+	private static final long PARALLEL_THRESHOLD = 1024 * 1024;
+
+	private Blake3() {}
+
+
+	@NonNull
+	public static Hasher newHasher() {
+		return new Hasher(0);
+	}
+
+	@NonNull
+	public static byte[] hash(@NonNull byte[] data) {
+		Hasher hasher = newHasher();
+		hasher.update(data, 0, data.length);
+		return hasher.digest();
+	}
+
+
+	//Hashes the first length bytes of the channel, splitting the work across the pool.
+	//The channel is only ever read with positional reads, so its position is left alone.
+	@NonNull
+	public static byte[] hashParallel(@NonNull FileChannel channel, long length, @NonNull ForkJoinPool pool) throws IOException {
+		if(length <= CHUNK_LEN) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) length);
+			readFully(channel, buffer, 0);
+			Hasher hasher = newHasher();
+			hasher.update(buffer.array(), 0, buffer.limit());
+			return hasher.digest();
+		}
+
+		try {
+			//Both halves go to the pool before we wait on either, so they're hashed side by side
+			long leftLen = leftSubtreeLen(length);
+			ForkJoinTask<int[]> left = pool.submit(new SubtreeTask(channel, 0, leftLen));
+			ForkJoinTask<int[]> right = pool.submit(new SubtreeTask(channel, leftLen, length - leftLen));
+
+			//The root node is the one place output differs from any other parent
+			return rootBytes(IV, parentBlock(left.get(), right.get()), BLOCK_LEN, PARENT);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while hashing", e);
+		}
+		catch (ExecutionException e) {
+			if(e.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+
+	//Computes the chaining value of the subtree covering [offset, offset+length) of the channel
+	private static class SubtreeTask extends RecursiveTask<int[]> {
+		private final FileChannel channel;
+		private final long offset;
+		private final long length;
+
+		SubtreeTask(FileChannel channel, long offset, long length) {
+			this.channel = channel;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		protected int[] compute() {
+			if(length <= PARALLEL_THRESHOLD || length <= CHUNK_LEN)
+				return hashSequential();
+
+			long leftLen = leftSubtreeLen(length);
+			SubtreeTask left = new SubtreeTask(channel, offset, leftLen);
+			SubtreeTask right = new SubtreeTask(channel, offset + leftLen, length - leftLen);
+			left.fork();
+			int[] rightCV = right.compute();
+			int[] leftCV = left.join();
+
+			return chainingValue(IV, parentBlock(leftCV, rightCV), 0, BLOCK_LEN, PARENT);
+		}
+
+		private int[] hashSequential() {
+			try {
+				ByteBuffer buffer = ByteBuffer.allocate((int) length);
+				readFully(channel, buffer, offset);
+
+				Hasher hasher = new Hasher(offset / CHUNK_LEN);
+				hasher.update(buffer.array(), 0, buffer.limit());
+				return hasher.subtreeChainingValue();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	//The left subtree gets the largest power of 2 number of full chunks that leaves at least one byte for the right
+	private static long leftSubtreeLen(long length) {
+		long fullChunks = (length - 1) / CHUNK_LEN;
+		return Long.highestOneBit(fullChunks) * CHUNK_LEN;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0)
+				throw new EOFException("Channel ended before the length being hashed");
+		}
+		buffer.flip();
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+
+	//Incremental hasher. Not thread safe.
+	public static final class Hasher {
+		private final long firstChunk;
+		private final int[][] cvStack = new int[54][];
+		private int cvStackLen = 0;
+
+		private int[] chunkCV = IV.clone();
+		private long chunkCounter;
+		private final byte[] block = new byte[BLOCK_LEN];
+		private int blockLen = 0;
+		private int blocksCompressed = 0;
+		private final int[] blockWords = new int[16];
+
+		//Chunk counters start at firstChunk, which lets a hasher produce any subtree of a larger input
+		private Hasher(long firstChunk) {
+			this.firstChunk = firstChunk;
+			this.chunkCounter = firstChunk;
+		}
+
+
+		public void update(@NonNull byte[] input, int offset, int length) {
+			while(length > 0) {
+				//Only finish a chunk once we know more input is coming, since the last chunk is handled differently
+				if(chunkLen() == CHUNK_LEN) {
+					int[] cv = chunkOutputCV();
+					long totalChunks = chunkCounter + 1 - firstChunk;
+					addChunkChainingValue(cv, totalChunks);
+					startChunk(chunkCounter + 1);
+				}
+
+				int take = Math.min(CHUNK_LEN - chunkLen(), length);
+				updateChunk(input, offset, take);
+				offset += take;
+				length -= take;
+			}
+		}
+
+		public void update(@NonNull ByteBuffer input) {
+			if(input.hasArray()) {
+				update(input.array(), input.arrayOffset() + input.position(), input.remaining());
+				input.position(input.limit());
+				return;
+			}
+
+			byte[] buffer = new byte[Math.min(input.remaining(), 8192)];
+			while(input.hasRemaining()) {
+				int take = Math.min(buffer.length, input.remaining());
+				input.get(buffer, 0, take);
+				update(buffer, 0, take);
+			}
+		}
+
+
+		@NonNull
+		public byte[] digest() {
+			//Merge the last chunk up through everything on the stack, with the very last merge as the root
+			int flags = CHUNK_END | (blocksCompressed == 0 ? CHUNK_START : 0);
+			int[] inputCV = chunkCV;
+			int[] words = wordsOf(block, blockWords.clone());
+			long counter = chunkCounter;
+			int outBlockLen = blockLen;
+
+			for(int i = cvStackLen - 1; i >= 0; i--) {
+				int[] cv = chainingValue(inputCV, words, counter, outBlockLen, flags);
+				words = parentBlock(cvStack[i], cv);
+				inputCV = IV;
+				counter = 0;
+				outBlockLen = BLOCK_LEN;
+				flags = PARENT;
+			}
+			//Root output is counted by output block instead, and we only ever need block 0
+			return rootBytes(inputCV, words, outBlockLen, flags);
+		}
+
+		//Like digest(), but for a subtree, which ends in a plain chaining value rather than a root
+		int[] subtreeChainingValue() {
+			int[] cv = chunkOutputCV();
+			for(int i = cvStackLen - 1; i >= 0; i--)
+				cv = chainingValue(IV, parentBlock(cvStack[i], cv), 0, BLOCK_LEN, PARENT);
+			return cv;
+		}
+
+
+		private void addChunkChainingValue(int[] cv, long totalChunks) {
+			//Each trailing zero in the chunk count means a completed subtree to merge
+			while((totalChunks & 1) == 0) {
+				cv = chainingValue(IV, parentBlock(cvStack[--cvStackLen], cv), 0, BLOCK_LEN, PARENT);
+				totalChunks >>= 1;
+			}
+			cvStack[cvStackLen++] = cv;
+		}
+
+
+		private int chunkLen() {
+			return BLOCK_LEN * blocksCompressed + blockLen;
+		}
+
+		private void startChunk(long counter) {
+			chunkCV = IV.clone();
+			chunkCounter = counter;
+			blockLen = 0;
+			blocksCompressed = 0;
+		}
+
+		private void updateChunk(byte[] input, int offset, int length) {
+			while(length > 0) {
+				if(blockLen == BLOCK_LEN) {
+					int flags = blocksCompressed == 0 ? CHUNK_START : 0;
+					compress(chunkCV, wordsOf(block, blockWords), chunkCounter, BLOCK_LEN, flags, chunkCV);
+					blocksCompressed++;
+					blockLen = 0;
+				}
+
+				int take = Math.min(BLOCK_LEN - blockLen, length);
+				System.arraycopy(input, offset, block, blockLen, take);
+				blockLen += take;
+				offset += take;
+				length -= take;
+			}
+		}
+
+		private int[] chunkOutputCV() {
+			int flags = CHUNK_END | (blocksCompressed == 0 ? CHUNK_START : 0);
+			return chainingValue(chunkCV, wordsOf(block, blockWords), chunkCounter, blockLen, flags);
+		}
+
+		//Unused bytes past blockLen must read as zero
+		private int[] wordsOf(byte[] block, int[] words) {
+			for(int i = blockLen; i < BLOCK_LEN; i++)
+				block[i] = 0;
+			for(int i = 0; i < 16; i++) {
+				words[i] = (block[i*4] & 0xFF) | (block[i*4+1] & 0xFF) << 8
+						| (block[i*4+2] & 0xFF) << 16 | (block[i*4+3] & 0xFF) << 24;
+			}
+			return words;
+		}
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+
+	private static int[] parentBlock(int[] leftCV, int[] rightCV) {
+		int[] words = new int[16];
+		System.arraycopy(leftCV, 0, words, 0, 8);
+		System.arraycopy(rightCV, 0, words, 8, 8);
+		return words;
+	}
+
+	private static int[] chainingValue(int[] cv, int[] blockWords, long counter, int blockLen, int flags) {
+		int[] out = new int[8];
+		compress(cv, blockWords, counter, blockLen, flags, out);
+		return out;
+	}
+
+	private static byte[] rootBytes(int[] cv, int[] blockWords, int blockLen, int flags) {
+		//We only ever need the first 32 bytes of output, which all come from output block 0
+		int[] state = new int[8];
+		compress(cv, blockWords, 0, blockLen, flags | ROOT, state);
+		byte[] out = new byte[OUT_LEN];
+		for(int i = 0; i < 8; i++) {
+			out[i*4] = (byte) state[i];
+			out[i*4+1] = (byte) (state[i] >>> 8);
+			out[i*4+2] = (byte) (state[i] >>> 16);
+			out[i*4+3] = (byte) (state[i] >>> 24);
+		}
+		return out;
+	}
+
+	//Writes the first out.length words of the compression output, which is all anybody here needs.
+	//out may be the same array as cv.
+	private static void compress(int[] cv, int[] m, long counter, int blockLen, int flags, int[] out) {
+		//Pull everything into locals up front, both for speed and so out can overwrite cv
+		int s0 = cv[0], s1 = cv[1], s2 = cv[2], s3 = cv[3], s4 = cv[4], s5 = cv[5], s6 = cv[6], s7 = cv[7];
+		int s8 = IV[0], s9 = IV[1], s10 = IV[2], s11 = IV[3];
+		int s12 = (int) counter, s13 = (int) (counter >>> 32), s14 = blockLen, s15 = flags;
+
+		for(int[] r : SCHEDULE) {
+			//Columns
+			s0 += s4 + m[r[0]]; s12 = Integer.rotateRight(s12 ^ s0, 16); s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 12);
+			s0 += s4 + m[r[1]]; s12 = Integer.rotateRight(s12 ^ s0, 8); s8 += s12; s4 = Integer.rotateRight(s4 ^ s8, 7);
+			s1 += s5 + m[r[2]]; s13 = Integer.rotateRight(s13 ^ s1, 16); s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 12);
+			s1 += s5 + m[r[3]]; s13 = Integer.rotateRight(s13 ^ s1, 8); s9 += s13; s5 = Integer.rotateRight(s5 ^ s9, 7);
+			s2 += s6 + m[r[4]]; s14 = Integer.rotateRight(s14 ^ s2, 16); s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 12);
+			s2 += s6 + m[r[5]]; s14 = Integer.rotateRight(s14 ^ s2, 8); s10 += s14; s6 = Integer.rotateRight(s6 ^ s10, 7);
+			s3 += s7 + m[r[6]]; s15 = Integer.rotateRight(s15 ^ s3, 16); s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 12);
+			s3 += s7 + m[r[7]]; s15 = Integer.rotateRight(s15 ^ s3, 8); s11 += s15; s7 = Integer.rotateRight(s7 ^ s11, 7);
+
+			//Diagonals
+			s0 += s5 + m[r[8]]; s15 = Integer.rotateRight(s15 ^ s0, 16); s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 12);
+			s0 += s5 + m[r[9]]; s15 = Integer.rotateRight(s15 ^ s0, 8); s10 += s15; s5 = Integer.rotateRight(s5 ^ s10, 7);
+			s1 += s6 + m[r[10]]; s12 = Integer.rotateRight(s12 ^ s1, 16); s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 12);
+			s1 += s6 + m[r[11]]; s12 = Integer.rotateRight(s12 ^ s1, 8); s11 += s12; s6 = Integer.rotateRight(s6 ^ s11, 7);
+			s2 += s7 + m[r[12]]; s13 = Integer.rotateRight(s13 ^ s2, 16); s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 12);
+			s2 += s7 + m[r[13]]; s13 = Integer.rotateRight(s13 ^ s2, 8); s8 += s13; s7 = Integer.rotateRight(s7 ^ s8, 7);
+			s3 += s4 + m[r[14]]; s14 = Integer.rotateRight(s14 ^ s3, 16); s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 12);
+			s3 += s4 + m[r[15]]; s14 = Integer.rotateRight(s14 ^ s3, 8); s9 += s14; s4 = Integer.rotateRight(s4 ^ s9, 7);
+		}
+
+		out[0] = s0 ^ s8; out[1] = s1 ^ s9; out[2] = s2 ^ s10; out[3] = s3 ^ s11;
+		out[4] = s4 ^ s12; out[5] = s5 ^ s13; out[6] = s6 ^ s14; out[7] = s7 ^ s15;
+	}
+}
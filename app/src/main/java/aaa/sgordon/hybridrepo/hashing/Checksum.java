@@ -0,0 +1,46 @@
+package aaa.sgordon.hybridrepo.hashing;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.JsonObject;
+
+//A checksum along with the exact object that was hashed to get it.
+//Whoever first sees the bytes hashes them once and passes this down the write path, and everything further down
+// can check isOf() instead of hashing the same bytes again. Only hashing creates one, so it can't be made up.
+//Holding onto the source keeps it alive, so don't hang onto these past the write.
+public final class Checksum {
+	@NonNull
+	public final String value;
+	@NonNull
+	private final Object source;
+
+	private Checksum(@NonNull String value, @NonNull Object source) {
+		this.value = value;
+		this.source = source;
+	}
+
+
+	@NonNull
+	public static Checksum of(@NonNull HashAlgorithm algorithm, @NonNull byte[] contents) {
+		return new Checksum(algorithm.hash(contents), contents);
+	}
+
+	//Attributes are always SHA-256'd from their serialized form, which is what the server does too
+	@NonNull
+	public static Checksum ofAttributes(@NonNull JsonObject attributes) {
+		return new Checksum(HashAlgorithm.SHA256.hash(attributes.toString().getBytes()), attributes);
+	}
+
+
+	//True if this checksum was computed from this very object. Sources are compared by identity, not by content.
+	public boolean isOf(@NonNull Object source) {
+		return this.source == source;
+	}
+
+
+	@NonNull
+	@Override
+	public String toString() {
+		return value;
+	}
+}
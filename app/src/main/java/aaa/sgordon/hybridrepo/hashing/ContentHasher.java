@@ -0,0 +1,15 @@
+package aaa.sgordon.hybridrepo.hashing;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+//Incrementally hashes content for one HashAlgorithm. Not thread safe, and not reusable after finish().
+public interface ContentHasher {
+	void update(@NonNull byte[] input, int offset, int length);
+	void update(@NonNull ByteBuffer input);
+
+	//Returns the checksum, tagged with the algorithm's prefix
+	@NonNull
+	String finish();
+}
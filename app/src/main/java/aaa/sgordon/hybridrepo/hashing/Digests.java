@@ -0,0 +1,73 @@
+package aaa.sgordon.hybridrepo.hashing;
+
+import androidx.annotation.NonNull;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+//Reusable SHA-256 digests and scratch buffers, so hashing doesn't go through a provider lookup and allocate fresh
+// buffers for every checksum. Bulk syncs hash thousands of small things, and it all shows up as garbage.
+//
+//One-shot hashes use a per-thread digest, as nothing can run in between starting and finishing one.
+//Streaming hashers can live across threads and may never be finished, so those borrow from a small shared pool
+// instead. A hasher that's abandoned just takes its digest with it to the garbage collector.
+final class Digests {
+	private static final int maxPooled = 8;
+	private static final ArrayBlockingQueue<MessageDigest> pool = new ArrayBlockingQueue<>(maxPooled);
+
+	private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+	private Digests() {}
+
+
+	static final class Scratch {
+		final MessageDigest sha256 = newSha256();
+		final byte[] digest = new byte[64];
+		//Long enough for the longest prefix plus a hex digest
+		final char[] text = new char[16 + 128];
+	}
+
+	@NonNull
+	static Scratch scratch() {
+		return scratch.get();
+	}
+
+
+	@NonNull
+	static MessageDigest borrowSha256() {
+		MessageDigest digest = pool.poll();
+		return digest != null ? digest : newSha256();
+	}
+
+	static void release(@NonNull MessageDigest digest) {
+		digest.reset();
+		boolean pooled = pool.offer(digest);
+	}
+
+
+	//Finishes the digest into the buffer, which must hold at least the digest's length
+	static int finish(@NonNull MessageDigest digest, @NonNull byte[] out) {
+		try {
+			return digest.digest(out, 0, out.length);
+		} catch (DigestException e) { throw new RuntimeException(e); }
+	}
+
+	//Builds "<prefix><HEX>" with a single allocation, the String itself
+	@NonNull
+	static String tag(@NonNull String prefix, @NonNull byte[] digest, int length) {
+		char[] text = scratch().text;
+		prefix.getChars(0, prefix.length(), text, 0);
+		int end = Hex.encode(digest, 0, length, text, prefix.length());
+		return new String(text, 0, end);
+	}
+
+
+	@NonNull
+	private static MessageDigest newSha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+	}
+}
@@ -0,0 +1,159 @@
+package aaa.sgordon.hybridrepo.hashing;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ForkJoinPool;
+
+//Content checksums carry the algorithm that produced them as a prefix, e.g. "blake3:AB12...".
+//SHA-256 has no prefix, so every checksum written before this (and every one the server hands us) still reads as SHA-256.
+public enum HashAlgorithm {
+	SHA256("") {
+		@NonNull
+		@Override
+		public ContentHasher newHasher() {
+			return new ContentHasher() {
+				//Handed back to the pool by finish(), after which this hasher can't be used
+				private MessageDigest digest = Digests.borrowSha256();
+
+				@Override
+				public void update(@NonNull byte[] input, int offset, int length) {
+					digest.update(input, offset, length);
+				}
+				@Override
+				public void update(@NonNull ByteBuffer input) {
+					digest.update(input);
+				}
+				@NonNull
+				@Override
+				public String finish() {
+					byte[] out = Digests.scratch().digest;
+					int length = Digests.finish(digest, out);
+					Digests.release(digest);
+					digest = null;
+					return Digests.tag(prefix, out, length);
+				}
+			};
+		}
+
+		//Hashes with this thread's digest, so the only thing allocated is the checksum String
+		@NonNull
+		@Override
+		public String hash(@NonNull byte[] data, int offset, int length) {
+			Digests.Scratch scratch = Digests.scratch();
+			scratch.sha256.update(data, offset, length);
+			int digestLength = Digests.finish(scratch.sha256, scratch.digest);
+			return Digests.tag(prefix, scratch.digest, digestLength);
+		}
+	},
+
+
+	//Much faster than SHA-256 per core, and its tree structure lets large files be hashed across every core
+	BLAKE3("blake3:") {
+		@NonNull
+		@Override
+		public ContentHasher newHasher() {
+			Blake3.Hasher hasher = Blake3.newHasher();
+
+			return new ContentHasher() {
+				@Override
+				public void update(@NonNull byte[] input, int offset, int length) {
+					hasher.update(input, offset, length);
+				}
+				@Override
+				public void update(@NonNull ByteBuffer input) {
+					hasher.update(input);
+				}
+				@NonNull
+				@Override
+				public String finish() {
+					return tag(hasher.digest());
+				}
+			};
+		}
+
+		@Override
+		public boolean hashesInParallel() {
+			return true;
+		}
+
+		@NonNull
+		@Override
+		public String hashFile(@NonNull File file) throws IOException {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				return tag(Blake3.hashParallel(channel, channel.size(), ForkJoinPool.commonPool()));
+			}
+		}
+	};
+
+
+	@NonNull
+	public final String prefix;
+
+	HashAlgorithm(@NonNull String prefix) {
+		this.prefix = prefix;
+	}
+
+
+	//Which algorithm produced the given checksum
+	@NonNull
+	public static HashAlgorithm of(@NonNull String checksum) {
+		if(checksum.startsWith(BLAKE3.prefix))
+			return BLAKE3;
+		return SHA256;
+	}
+
+	//The checksum's hex digest, without its prefix
+	@NonNull
+	public static String hexOf(@NonNull String checksum) {
+		return checksum.substring(of(checksum).prefix.length());
+	}
+
+
+	@NonNull
+	public abstract ContentHasher newHasher();
+
+	@NonNull
+	public String hash(@NonNull byte[] data) {
+		return hash(data, 0, data.length);
+	}
+
+	@NonNull
+	public String hash(@NonNull byte[] data, int offset, int length) {
+		ContentHasher hasher = newHasher();
+		hasher.update(data, offset, length);
+		return hasher.finish();
+	}
+
+
+	//Whether hashFile() splits large files across cores, in which case it's faster to write a file first and hash it
+	// afterwards than to hash it on the way in
+	public boolean hashesInParallel() {
+		return false;
+	}
+
+	@NonNull
+	public String hashFile(@NonNull File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ContentHasher hasher = newHasher();
+			ByteBuffer buffer = ByteBuffer.allocate(65536);
+			while(channel.read(buffer) != -1) {
+				buffer.flip();
+				hasher.update(buffer);
+				buffer.clear();
+			}
+			return hasher.finish();
+		}
+	}
+
+
+	@NonNull
+	protected String tag(@NonNull byte[] digest) {
+		return Digests.tag(prefix, digest, digest.length);
+	}
+}
@@ -0,0 +1,65 @@
+package aaa.sgordon.hybridrepo.hashing;
+
+import androidx.annotation.NonNull;
+
+import java.nio.charset.StandardCharsets;
+
+//Uppercase hex, the way every checksum in the repo is written.
+//The encode() methods write into the caller's buffer, so hot paths can encode without allocating anything.
+public final class Hex {
+	private static final char[] HEX_CHARS = "0123456789ABCDEF".toCharArray();
+	private static final byte[] HEX_BYTES = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+	private Hex() {}
+
+
+	//Writes len*2 ASCII hex digits into dst starting at dstOff, returning the offset just past them
+	public static int encode(@NonNull byte[] src, int srcOff, int len, @NonNull byte[] dst, int dstOff) {
+		for(int i = 0; i < len; i++) {
+			int v = src[srcOff + i] & 0xFF;
+			dst[dstOff++] = HEX_BYTES[v >>> 4];
+			dst[dstOff++] = HEX_BYTES[v & 0x0F];
+		}
+		return dstOff;
+	}
+
+	//Writes len*2 hex digits into dst starting at dstOff, returning the offset just past them
+	public static int encode(@NonNull byte[] src, int srcOff, int len, @NonNull char[] dst, int dstOff) {
+		for(int i = 0; i < len; i++) {
+			int v = src[srcOff + i] & 0xFF;
+			dst[dstOff++] = HEX_CHARS[v >>> 4];
+			dst[dstOff++] = HEX_CHARS[v & 0x0F];
+		}
+		return dstOff;
+	}
+
+	@NonNull
+	public static String encode(@NonNull byte[] src) {
+		char[] chars = new char[src.length * 2];
+		encode(src, 0, src.length, chars, 0);
+		return new String(chars);
+	}
+
+
+	//Reads len*2 hex digits (either case) from src starting at srcOff into dst, returning the offset just past what was written
+	public static int decode(@NonNull CharSequence src, int srcOff, int len, @NonNull byte[] dst, int dstOff) {
+		for(int i = 0; i < len; i++) {
+			int hi = Character.digit(src.charAt(srcOff + i*2), 16);
+			int lo = Character.digit(src.charAt(srcOff + i*2 + 1), 16);
+			if(hi < 0 || lo < 0)
+				throw new IllegalArgumentException("Not a hex string: '"+src+"'");
+			dst[dstOff++] = (byte) ((hi << 4) | lo);
+		}
+		return dstOff;
+	}
+
+	@NonNull
+	public static byte[] decode(@NonNull CharSequence src) {
+		if(src.length() % 2 != 0)
+			throw new IllegalArgumentException("Hex string has an odd length: '"+src+"'");
+
+		byte[] bytes = new byte[src.length() / 2];
+		decode(src, 0, bytes.length, bytes, 0);
+		return bytes;
+	}
+}
@@ -0,0 +1,86 @@
+package aaa.sgordon.hybridrepo.hybrid;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.UUID;
+
+import aaa.sgordon.hybridrepo.local.LContentWriter;
+
+//Streams new contents for a file straight into the local content store.
+//On close, the contents are published and the file is updated to point to them, as long as the file's checksum
+// still matches the one given when this writer was opened. Use abort() to throw away what's been written instead.
+//Obtain through HybridAPI.openFileWriter().
+public class HFileWriter extends OutputStream implements WritableByteChannel {
+	private final HybridAPI hAPI;
+	private final UUID fileUID;
+	private final String prevChecksum;
+	private final LContentWriter contentWriter;
+
+	private boolean open;
+	private String checksum;
+
+	HFileWriter(@NonNull HybridAPI hAPI, @NonNull UUID fileUID, @NonNull String prevChecksum, @NonNull LContentWriter contentWriter) {
+		this.hAPI = hAPI;
+		this.fileUID = fileUID;
+		this.prevChecksum = prevChecksum;
+		this.contentWriter = contentWriter;
+
+		this.open = true;
+		this.checksum = null;
+	}
+
+
+	@Override
+	public void write(int b) throws IOException {
+		contentWriter.write(b);
+	}
+
+	@Override
+	public void write(@NonNull byte[] b, int off, int len) throws IOException {
+		contentWriter.write(b, off, len);
+	}
+
+	@Override
+	public int write(@NonNull ByteBuffer src) throws IOException {
+		return contentWriter.write(src);
+	}
+
+
+	//Returns the file's new checksum, or null if the writer hasn't been closed
+	@Nullable
+	public String getChecksum() {
+		return checksum;
+	}
+
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	//Discards everything written without touching the file
+	public void abort() throws IOException {
+		if(!open) return;
+		open = false;
+		contentWriter.close();
+	}
+
+	//Throws IllegalStateException if the file was changed by someone else while we were writing
+	@Override
+	public void close() throws IOException {
+		if(!open) return;
+		open = false;
+
+		try {
+			checksum = hAPI.finishFileWriter(fileUID, prevChecksum, contentWriter);
+		} finally {
+			//If the commit didn't make it, this cleans up the staging file
+			contentWriter.close();
+		}
+	}
+}
@@ -6,30 +6,39 @@ import androidx.annotation.NonNull;
 
 import com.google.gson.JsonObject;
 
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.ConnectException;
-import java.net.URL;
-import java.nio.file.Files;
-import java.security.DigestOutputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.MappedByteBuffer;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 
 import aaa.sgordon.hybridrepo.MyApplication;
-import aaa.sgordon.hybridrepo.Utilities;
+import aaa.sgordon.hybridrepo.hashing.Checksum;
 import aaa.sgordon.hybridrepo.hybrid.database.HZone;
 import aaa.sgordon.hybridrepo.hybrid.database.HZoningDAO;
 import aaa.sgordon.hybridrepo.hybrid.database.HybridHelpDatabase;
+import aaa.sgordon.hybridrepo.hybrid.jobs.Cleanup;
+import aaa.sgordon.hybridrepo.hybrid.jobs.ContentLayoutWorker;
+import aaa.sgordon.hybridrepo.hybrid.jobs.Eviction;
+import aaa.sgordon.hybridrepo.hybrid.jobs.JournalCompaction;
+import aaa.sgordon.hybridrepo.hybrid.jobs.Scrubber;
 import aaa.sgordon.hybridrepo.hybrid.jobs.sync.Sync;
 import aaa.sgordon.hybridrepo.hybrid.jobs.sync.SyncWorkers;
 import aaa.sgordon.hybridrepo.hybrid.types.HFile;
+import aaa.sgordon.hybridrepo.local.ContentChannel;
+import aaa.sgordon.hybridrepo.local.LContentWriter;
 import aaa.sgordon.hybridrepo.local.LocalRepo;
+import aaa.sgordon.hybridrepo.local.StagedContents;
 import aaa.sgordon.hybridrepo.local.types.LContent;
 import aaa.sgordon.hybridrepo.local.types.LFile;
 import aaa.sgordon.hybridrepo.local.types.LJournal;
@@ -62,6 +71,15 @@ public class HybridAPI {
 
 		Sync.initialize(MyApplication.getAppContext());
 		sync = Sync.getInstance();
+
+		//Move any content still in the old flat layout into the sharded layout
+		ContentLayoutWorker.enqueue();
+		//Regularly clear out content no file needs anymore
+		Cleanup.CleanupWorker.enqueuePeriodic();
+		//And regularly make sure it hasn't rotted
+		Scrubber.ScrubWorker.enqueuePeriodic();
+		//And keep the journal from holding onto history Sync has already seen
+		JournalCompaction.CompactionWorker.enqueuePeriodic();
 	}
 
 
@@ -75,6 +93,29 @@ public class HybridAPI {
 
 
 
+	//Sweeps away unused local content in the background, e.g. after deleting or offloading lots of files.
+	//Cleanup also runs on its own about once a day.
+	public void scheduleCleanup() {
+		Cleanup.CleanupWorker.enqueue();
+	}
+
+
+
+	//Caps how much space local content can take up, in bytes. Once over, the least recently used files that are
+	// also on remote are dropped from local. -1 removes the cap.
+	public void setContentQuota(long quotaBytes) {
+		Eviction.setQuota(MyApplication.getAppContext(), quotaBytes);
+		Eviction.EvictionWorker.enqueue();
+	}
+	public long getContentQuota() {
+		return Eviction.getQuota(MyApplication.getAppContext());
+	}
+	public long getContentStorageUsed() {
+		return localRepo.getContentStorageUsed();
+	}
+
+
+
 	public void lockLocal(@NonNull UUID fileUID) {
 		localRepo.lock(fileUID);
 	}
@@ -94,12 +135,25 @@ public class HybridAPI {
 	}
 
 
+	//Grabs many files in one query, e.g. a screen of thumbnails. Files that don't exist are left out.
+	public Map<UUID, HFile> getFileProps(@NonNull Collection<UUID> fileUIDs) {
+		Map<UUID, HFile> files = new LinkedHashMap<>();
+		for(LFile local : localRepo.getFileProps(fileUIDs).values())
+			files.put(local.fileuid, HFile.fromLocalFile(local));
+		return files;
+	}
+
+
 	public Uri getFileContent(@NonNull UUID fileUID) throws FileNotFoundException, ContentsNotFoundException, ConnectException {
 		//Grab the file properties, which also makes sure the file exists
 		LFile props = localRepo.getFileProps(fileUID);
 
 		//Try to get the file contents from local. If they exist, return that.
-		try { return localRepo.getContentUri(props.checksum); }
+		try {
+			Uri localUri = localRepo.getContentUri(props.checksum);
+			localRepo.markFileAccessed(props);
+			return localUri;
+		}
 		catch (ContentsNotFoundException ignored) { }
 
 		//If the contents don't exist locally, try to get it from the server.
@@ -111,6 +165,26 @@ public class HybridAPI {
 	}
 
 
+	//Returns a seekable, read-only channel over the file's local contents. Close it when done.
+	//Unlike getFileContent, this only works for contents stored on local.
+	public ContentChannel openFileChannel(@NonNull UUID fileUID) throws FileNotFoundException, ContentsNotFoundException {
+		LFile props = localRepo.getFileProps(fileUID);
+		ContentChannel channel = localRepo.openContentChannel(props.checksum);
+		localRepo.markFileAccessed(props);
+		return channel;
+	}
+
+
+	//Maps a range of the file's local contents into memory without copying it through the heap.
+	//Useful for reading headers or seeking in large media. Only works for contents stored on local.
+	public MappedByteBuffer readFileRange(@NonNull UUID fileUID, long offset, long length) throws FileNotFoundException, ContentsNotFoundException {
+		LFile props = localRepo.getFileProps(fileUID);
+		MappedByteBuffer range = localRepo.readContentRange(props.checksum, offset, length);
+		localRepo.markFileAccessed(props);
+		return range;
+	}
+
+
 	//Returns the FileUID of the new file
 	public UUID createFile(@NonNull UUID accountUID, boolean isDir, boolean isLink) {
 		//Note: Locking for this file doesn't really matter, since nothing can know about it yet
@@ -150,6 +224,48 @@ public class HybridAPI {
 	}
 
 
+	//Creates many files at once, with their file rows and journal entries committed together.
+	//Returns the FileUIDs of the new files.
+	public List<UUID> createFiles(@NonNull UUID accountUID, int count, boolean isDir, boolean isLink) {
+		List<UUID> fileUIDs = new ArrayList<>();
+		List<LFile> newFiles = new ArrayList<>();
+		for(int i = 0; i < count; i++) {
+			LFile newFile = new LFile(UUID.randomUUID(), accountUID);
+			newFile.isdir = isDir;
+			newFile.islink = isLink;
+			newFiles.add(newFile);
+			fileUIDs.add(newFile.fileuid);
+		}
+
+		//Create blank file contents
+		localRepo.writeContents(LFile.defaultChecksum, "".getBytes());
+
+		try {
+			localRepo.lock(fileUIDs);
+			//None of these exist yet, so there are no previous hashes to check
+			localRepo.putFileProps(newFiles, Collections.emptyMap(), Collections.emptyMap(), newFile -> {
+				JsonObject changes = new JsonObject();
+				changes.addProperty("checksum", newFile.checksum);
+				changes.addProperty("attrhash", newFile.attrhash);
+				changes.addProperty("changetime", newFile.changetime);
+				changes.addProperty("createtime", newFile.createtime);
+				return new LJournal(newFile.fileuid, accountUID, changes);
+			});
+		}
+		finally {
+			localRepo.unlock(fileUIDs);
+		}
+
+		//Set zoning information.
+		HZone[] zones = new HZone[fileUIDs.size()];
+		for(int i = 0; i < zones.length; i++)
+			zones[i] = new HZone(fileUIDs.get(i), true, false);
+		Sync.getInstance().zoningDAO.put(zones);
+
+		return fileUIDs;
+	}
+
+
 	public void deleteFile(@NonNull UUID fileUID) throws FileNotFoundException {
 		localRepo.deleteFileProps(fileUID);
 
@@ -166,6 +282,29 @@ public class HybridAPI {
 		//If a remote file exists, Sync will now handle the delete from Remote using the new journal entry.
 	}
 
+	//Deletes many files at once, with their journal entries committed alongside. Files that don't exist are skipped.
+	//Takes the locks for every file itself, in a consistent order.
+	public void deleteFiles(@NonNull Collection<UUID> fileUIDs) {
+		List<UUID> deleted;
+		try {
+			localRepo.lock(fileUIDs);
+			deleted = localRepo.deleteFileProps(fileUIDs, fileUID -> {
+				JsonObject changes = new JsonObject();
+				changes.addProperty("isdeleted", true);
+				return new LJournal(fileUID, currentAccount, changes);
+			});
+		}
+		finally {
+			localRepo.unlock(fileUIDs);
+		}
+
+		//Remove zoning information, a page at a time to stay under SQLite's limit on bound arguments
+		for(int i = 0; i < deleted.size(); i += 500) {
+			List<UUID> page = deleted.subList(i, Math.min(i + 500, deleted.size()));
+			Sync.getInstance().zoningDAO.delete(page.toArray(new UUID[0]));
+		}
+	}
+
 
 	//---------------------------------------------------------------------------------------------
 
@@ -182,23 +321,19 @@ public class HybridAPI {
 			throw new IllegalStateException(String.format("Cannot set attributes, attrHashes don't match! FileUID='%s'", fileUID));
 
 
-		//Get the checksum of the attributes
-		String newAttrHash;
-		try {
-			byte[] hash = MessageDigest.getInstance("SHA-256").digest(attributes.toString().getBytes());
-			newAttrHash = Utilities.bytesToHex(hash);
-		} catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+		//Get the checksum of the attributes. LocalRepo uses this rather than hashing them again.
+		Checksum newAttrHash = Checksum.ofAttributes(attributes);
 
 
 		//Update the properties with the new info received
 		props.userattr = attributes;
-		props.attrhash = newAttrHash;
+		props.attrhash = newAttrHash.value;
 		props.changetime = Instant.now().getEpochSecond();
-		props = localRepo.putFileProps(props, props.checksum, currAttrHash);
+		props = localRepo.putFileProps(props, newAttrHash, props.checksum, currAttrHash);
 
 		//Add a journal entry
 		JsonObject changes = new JsonObject();
-		changes.addProperty("attrhash", props.checksum);
+		changes.addProperty("attrhash", props.attrhash);
 		changes.addProperty("changetime", props.changetime);
 		LJournal journal = new LJournal(fileUID, currentAccount, changes);
 		localRepo.putJournalEntry(journal);
@@ -208,75 +343,114 @@ public class HybridAPI {
 
 
 
-	//Returns SHA-256 checksum of the given contents. Referenced as checksum in the file properties
+	//Sets attributes on many files at once, e.g. when tagging a selection, committing every file row and journal
+	// entry together. All or nothing: every file must exist and still be at the attrHash given for it.
+	//Takes the locks for every file itself, in a consistent order. Returns the new attrHash of each file.
+	public Map<UUID, String> setAttributes(@NonNull Map<UUID, JsonObject> attributes, @NonNull Map<UUID, String> prevAttrHashes) throws FileNotFoundException {
+		Set<UUID> fileUIDs = attributes.keySet();
+		try {
+			localRepo.lock(fileUIDs);
+
+			Map<UUID, LFile> currentProps = localRepo.getFileProps(fileUIDs);
+			Map<UUID, String> prevChecksums = new HashMap<>();
+			List<LFile> updatedProps = new ArrayList<>();
+			long now = Instant.now().getEpochSecond();
+			for(Map.Entry<UUID, JsonObject> entry : attributes.entrySet()) {
+				LFile props = currentProps.get(entry.getKey());
+				if(props == null) throw new FileNotFoundException("File not found! ID: '"+entry.getKey()+"'");
+
+				//LocalRepo checks both hashes again inside its transaction, so nothing can slip in between
+				prevChecksums.put(props.fileuid, props.checksum);
+				props.userattr = entry.getValue();
+				props.changetime = now;
+				updatedProps.add(props);
+			}
+
+			//LocalRepo hashes the new attributes
+			updatedProps = localRepo.putFileProps(updatedProps, prevChecksums, prevAttrHashes, props -> {
+				JsonObject changes = new JsonObject();
+				changes.addProperty("attrhash", props.attrhash);
+				changes.addProperty("changetime", props.changetime);
+				return new LJournal(props.fileuid, currentAccount, changes);
+			});
+
+			Map<UUID, String> newAttrHashes = new HashMap<>();
+			for(LFile props : updatedProps)
+				newAttrHashes.put(props.fileuid, props.attrhash);
+			return newAttrHashes;
+		}
+		finally {
+			localRepo.unlock(fileUIDs);
+		}
+	}
+
+
+
+	//Returns the checksum of the given contents, using the LocalRepo's hash algorithm. Referenced as checksum in the file properties
 	public String writeFile(@NonNull UUID fileUID, @NonNull byte[] content, @NonNull String prevChecksum) throws FileNotFoundException {
 		localRepo.ensureLockHeld(fileUID);
 
-		//Check that the current file checksum matches what we were given to ensure we won't be overwriting any data
-		LFile props = localRepo.getFileProps(fileUID);
-		String currChecksum = props.checksum;
-		if(!Objects.equals(currChecksum, prevChecksum))
-			throw new IllegalStateException(String.format("Cannot write, checksums don't match! FileUID='%s'", fileUID));
+		//Get the checksum of the contents. This is the only time they're hashed, LocalRepo takes our word for it.
+		Checksum newChecksum = Checksum.of(localRepo.getHashAlgorithm(), content);
 
 
-		//Get the checksum of the contents
-		String newChecksum;
-		try {
-			byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
-			newChecksum = Utilities.bytesToHex(hash);
-		} catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+		//Actually write the contents. They're recorded along with the file itself, which is where prevChecksum is checked.
+		StagedContents contents = localRepo.stageContents(newChecksum, content);
 
+		return commitContentChange(fileUID, prevChecksum, contents);
+	}
 
-		//Actually write the contents
-		LContent contentProps = localRepo.writeContents(newChecksum, content);
 
-		//Update the properties with the new info received
-		props.checksum = contentProps.checksum;
-		props.filesize = contentProps.size;
-		props.changetime = Instant.now().getEpochSecond();
-		props.modifytime = Instant.now().getEpochSecond();
-		props = localRepo.putFileProps(props, currChecksum, props.attrhash);
+	//Returns the checksum of the given contents, which must be tagged with its algorithm unless it's SHA-256.
+	//Referenced as checksum in the file properties
+	public String writeFile(@NonNull UUID fileUID, @NonNull Uri content, @NonNull String checksum, @NonNull String prevChecksum) throws FileNotFoundException {
+		localRepo.ensureLockHeld(fileUID);
 
-		//Add a journal entry
-		JsonObject changes = new JsonObject();
-		changes.addProperty("checksum", props.checksum);
-		changes.addProperty("changetime", props.changetime);
-		changes.addProperty("modifytime", props.createtime);
-		LJournal journal = new LJournal(fileUID, currentAccount, changes);
-		localRepo.putJournalEntry(journal);
+		//Actually write the contents. They're recorded along with the file itself, which is where prevChecksum is checked.
+		StagedContents contents = localRepo.stageContents(checksum, content);
 
-		return props.checksum;
+		return commitContentChange(fileUID, prevChecksum, contents);
 	}
 
 
-	//Returns SHA-256 checksum of the given contents. Referenced as checksum in the file properties
-	public String writeFile(@NonNull UUID fileUID, @NonNull Uri content, @NonNull String checksum, @NonNull String prevChecksum) throws FileNotFoundException {
+
+	//Opens a stream for writing new contents to the file without holding them all in memory.
+	//Contents are hashed as they're written, and the file is only updated once the writer is closed.
+	//The lock for this file must be held both when opening and when closing the writer.
+	public HFileWriter openFileWriter(@NonNull UUID fileUID, @NonNull String prevChecksum) throws FileNotFoundException {
 		localRepo.ensureLockHeld(fileUID);
-		LFile props = localRepo.getFileProps(fileUID);
 
-		//Check that the current file checksum matches what we were given to ensure we won't be overwriting any data
-		String currChecksum = props.checksum;
-		if(!Objects.equals(currChecksum, prevChecksum))
+		//Check the checksum now so we don't bother streaming content that can never be written
+		LFile props = localRepo.getFileProps(fileUID);
+		if(!Objects.equals(props.checksum, prevChecksum))
 			throw new IllegalStateException(String.format("Cannot write, checksums don't match! FileUID='%s'", fileUID));
 
+		return new HFileWriter(this, fileUID, prevChecksum, localRepo.openContentWriter());
+	}
 
-		//Actually write the contents
-		LContent contentProps = localRepo.writeContents(checksum, content);
+	//Called by HFileWriter once it's closed
+	String finishFileWriter(@NonNull UUID fileUID, @NonNull String prevChecksum, @NonNull LContentWriter writer) throws FileNotFoundException {
+		localRepo.ensureLockHeld(fileUID);
 
-		//Update the properties with the new info received
-		props.checksum = contentProps.checksum;
-		props.filesize = contentProps.size;
-		props.changetime = Instant.now().getEpochSecond();
-		props.modifytime = Instant.now().getEpochSecond();
-		props = localRepo.putFileProps(props, currChecksum, props.attrhash);
+		//Publish the streamed contents. The checksum is checked again when they're committed, in case it's changed
+		// since the writer was opened.
+		StagedContents contents = localRepo.stageContents(writer);
 
-		//Add a journal entry
-		JsonObject changes = new JsonObject();
-		changes.addProperty("checksum", props.checksum);
-		changes.addProperty("changetime", props.changetime);
-		changes.addProperty("modifytime", props.createtime);
-		LJournal journal = new LJournal(fileUID, currentAccount, changes);
-		localRepo.putJournalEntry(journal);
+		return commitContentChange(fileUID, prevChecksum, contents);
+	}
+
+
+	//Points the file at the newly written contents and journals the change, all in one transaction.
+	//Returns the new checksum.
+	private String commitContentChange(@NonNull UUID fileUID, @NonNull String prevChecksum, @NonNull StagedContents contents) throws FileNotFoundException {
+		LFile props = localRepo.commitContentChange(fileUID, prevChecksum, contents, newProps -> {
+			//Add a journal entry
+			JsonObject changes = new JsonObject();
+			changes.addProperty("checksum", newProps.checksum);
+			changes.addProperty("changetime", newProps.changetime);
+			changes.addProperty("modifytime", newProps.createtime);
+			return new LJournal(newProps.fileuid, currentAccount, changes);
+		});
 
 		return props.checksum;
 	}
@@ -285,28 +459,8 @@ public class HybridAPI {
 
 	//Returns new FileUID for imported file
 	public UUID importFile(@NonNull Uri content, @NonNull String prevChecksum) throws IOException {
-		//Write the source to a temp file so we can get the checksum
-		File appCacheDir = MyApplication.getAppContext().getCacheDir();
-		File tempFile = Files.createTempFile(appCacheDir.toPath(), UUID.randomUUID().toString(), null).toFile();
-
-		String checksum;
-		try (InputStream in = new URL(content.toString()).openStream();
-			 FileOutputStream out = new FileOutputStream(tempFile);
-			 DigestOutputStream dos = new DigestOutputStream(out, MessageDigest.getInstance("SHA-256"))) {
-
-			byte[] dataBuffer = new byte[1024];
-			int bytesRead;
-			while ((bytesRead = in.read(dataBuffer, 0, 1024)) != -1) {
-				dos.write(dataBuffer, 0, bytesRead);
-			}
-
-			checksum = Utilities.bytesToHex(dos.getMessageDigest().digest());
-		}
-		catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
-
-
-		//Write the temp file contents to the content repo
-		LContent contentProps = localRepo.writeContents(checksum, Uri.fromFile(tempFile));
+		//Stream the source straight into the content repo, which gives us the checksum along the way
+		LContent contentProps = localRepo.importContents(content);
 
 		//Create a new file
 		UUID fileUID = createFile(currentAccount, false, false);
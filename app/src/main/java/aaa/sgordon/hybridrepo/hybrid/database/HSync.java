@@ -5,11 +5,12 @@ import androidx.annotation.Nullable;
 import androidx.room.Entity;
 import androidx.room.PrimaryKey;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.util.UUID;
 
+import aaa.sgordon.hybridrepo.Json;
+
 @Entity(tableName = "sync")
 public class HSync {
 	@PrimaryKey
@@ -31,7 +32,7 @@ public class HSync {
 
 
 	public JsonObject toJson() {
-		return new Gson().toJsonTree(this).getAsJsonObject();
+		return Json.toJsonObject(this);
 	}
 
 	@NonNull
@@ -5,11 +5,12 @@ import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.PrimaryKey;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.util.UUID;
 
+import aaa.sgordon.hybridrepo.Json;
+
 @Entity(tableName = "zone")
 public class HZone {
 	@PrimaryKey
@@ -30,7 +31,7 @@ public class HZone {
 
 
 	public JsonObject toJson() {
-		return new Gson().toJsonTree(this).getAsJsonObject();
+		return Json.toJsonObject(this);
 	}
 
 	@NonNull
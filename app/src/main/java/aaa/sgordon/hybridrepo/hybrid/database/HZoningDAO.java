@@ -6,6 +6,7 @@ import androidx.room.Delete;
 import androidx.room.Query;
 import androidx.room.Upsert;
 
+import java.util.List;
 import java.util.UUID;
 
 @Dao
@@ -15,11 +16,18 @@ public interface HZoningDAO {
 	@Query("SELECT * FROM zone where fileuid = :fileUID")
 	HZone get(UUID fileUID);
 
+	@Query("SELECT * FROM zone where fileuid IN (:fileUIDs)")
+	List<HZone> get(UUID... fileUIDs);
+
 	@Upsert
 	void put(HZone zone);
+	@Upsert
+	void put(HZone... zones);
 
 	@Delete
 	void delete(HZone zone);
 	@Query("DELETE FROM zone WHERE fileuid = :fileUID")
 	void delete(UUID fileUID);
+	@Query("DELETE FROM zone WHERE fileuid IN (:fileUIDs)")
+	void delete(UUID... fileUIDs);
 }
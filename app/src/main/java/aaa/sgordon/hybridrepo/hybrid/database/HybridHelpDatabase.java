@@ -8,12 +8,15 @@ import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import java.util.Arrays;
 
 import aaa.sgordon.hybridrepo.MyApplication;
+import aaa.sgordon.hybridrepo.local.database.UUIDBlobMigration;
 
-@Database(entities = {HZone.class}, version = 1)
+@Database(entities = {HZone.class}, version = 2)
 @TypeConverters({HybridDBConverters.class})
 public abstract class HybridHelpDatabase extends RoomDatabase {
 
@@ -34,7 +37,22 @@ public abstract class HybridHelpDatabase extends RoomDatabase {
 			};
 			//dbBuilder.setQueryCallback(callback, Executors.newSingleThreadExecutor());
 
+			dbBuilder.addMigrations(MIGRATION_1_2);
+
 			return dbBuilder.build();
 		}
 	}
+
+
+	//---------------------------------------------------------------------------------------------
+	// Migrations
+	//---------------------------------------------------------------------------------------------
+
+	//UUIDs as 16 byte BLOBs instead of 36 character strings
+	static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase db) {
+			UUIDBlobMigration.rebuild(db, "zone", "fileuid");
+		}
+	};
 }
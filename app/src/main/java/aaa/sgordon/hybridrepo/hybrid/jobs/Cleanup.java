@@ -1,4 +1,340 @@
 package aaa.sgordon.hybridrepo.hybrid.jobs;
 
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import aaa.sgordon.hybridrepo.MyApplication;
+import aaa.sgordon.hybridrepo.hybrid.database.HZone;
+import aaa.sgordon.hybridrepo.hybrid.database.HZoningDAO;
+import aaa.sgordon.hybridrepo.hybrid.jobs.sync.Sync;
+import aaa.sgordon.hybridrepo.local.LocalRepo;
+import aaa.sgordon.hybridrepo.local.types.LContent;
+import aaa.sgordon.hybridrepo.local.types.LFile;
+
+//Removes local content nothing needs anymore.
+//Nothing deletes content when a file is written, deleted, or zoned off of local. Instead, Cleanup walks the content
+// table a batch at a time and counts the references to each content: every file pointing to it whose zoning says
+// the file is kept on local. Content with no references is deleted, as long as it's older than the grace period.
+//The grace period covers content that was just written but that no file has been pointed to yet.
+//Chunked, packed, and compressed content is rebuilt into a whole copy when it's read. Cleanup drops those copies
+// too once nobody has read them in a while, as they'd otherwise undo the space those formats save.
+//Packs are append-only, so deleted packed content leaves dead space behind. Cleanup copies the live content out of
+// mostly-dead packs, and deletes packs once nothing points into them anymore.
 public class Cleanup {
+	private static final String TAG = "Hyb.Cleanup";
+
+	private final LocalRepo localRepo;
+	private final HZoningDAO zoningDAO;
+	private final long gracePeriodSeconds;
+
+	public Cleanup(@NonNull LocalRepo localRepo, @NonNull HZoningDAO zoningDAO, long gracePeriodSeconds) {
+		this.localRepo = localRepo;
+		this.zoningDAO = zoningDAO;
+		this.gracePeriodSeconds = gracePeriodSeconds;
+	}
+
+
+	//Sweeps the next batch of content after the given name (null to start from the beginning)
+	@NonNull
+	public SweepResult sweepBatch(@Nullable String afterName, int batchSize) {
+		List<LContent> batch = localRepo.getContentPropsAfter(afterName, batchSize);
+		SweepResult result = new SweepResult();
+		result.done = batch.size() < batchSize;
+		result.lastName = batch.isEmpty() ? afterName : batch.get(batch.size()-1).name;
+		sweep(batch, result);
+		return result;
+	}
+
+	//Sweeps only the given contents, e.g. ones whose files were just zoned off of local
+	@NonNull
+	public SweepResult sweepContents(@NonNull List<String> names) {
+		List<LContent> batch = localRepo.getContentProps(names);
+		SweepResult result = new SweepResult();
+		result.done = true;
+		sweep(batch, result);
+		return result;
+	}
+
+
+	private void sweep(@NonNull List<LContent> batch, @NonNull SweepResult result) {
+		result.scanned += batch.size();
+		if(batch.isEmpty())
+			return;
+
+
+		//Every new file starts out pointing to the default content, so it's never removed and there's no point
+		// loading what could be most of the file table just to find that out
+		List<String> names = new ArrayList<>();
+		for(LContent content : batch) {
+			if(!content.name.equals(LFile.defaultChecksum))
+				names.add(content.name);
+		}
+
+		//Find every file using this batch of content, and which of them are kept on local
+		Map<String, Set<UUID>> users = new HashMap<>();
+		List<UUID> userUIDs = new ArrayList<>();
+		for(LFile file : localRepo.getFilesUsingContents(names)) {
+			users.computeIfAbsent(file.checksum, k -> new HashSet<>()).add(file.fileuid);
+			userUIDs.add(file.fileuid);
+		}
+
+		Set<UUID> notLocal = new HashSet<>();
+		if(!userUIDs.isEmpty()) {
+			for(HZone zone : zoningDAO.get(userUIDs.toArray(new UUID[0]))) {
+				if(!zone.isLocal)
+					notLocal.add(zone.fileuid);
+			}
+		}
+
+
+		long writtenBefore = Instant.now().getEpochSecond() - gracePeriodSeconds;
+		for(LContent content : batch) {
+			//Never removed, see above
+			if(content.name.equals(LFile.defaultChecksum))
+				continue;
+			if(content.createtime != null && content.createtime >= writtenBefore)
+				continue;
+
+			//Files without zoning info count as local, since that's where every file starts
+			Set<UUID> contentUsers = users.getOrDefault(content.name, new HashSet<>());
+			int references = 0;
+			for(UUID fileUID : contentUsers) {
+				if(!notLocal.contains(fileUID))
+					references++;
+			}
+			if(references > 0)
+				continue;
+
+			//Things may have changed since we looked, so LocalRepo checks everything again before deleting
+			long freed = localRepo.deleteContentsIfUnused(content.name, writtenBefore, contentUsers);
+			if(freed >= 0) {
+				result.deleted++;
+				result.bytesReclaimed += freed;
+			}
+		}
+	}
+
+
+	//Drops the next batch of whole copies that haven't been used since the given time (epoch seconds).
+	//Dropped copies leave the query behind them, so each batch just picks up whatever's left.
+	@NonNull
+	public SweepResult dropIdleCopies(long usedBefore, int batchSize) {
+		List<LContent> batch = localRepo.getIdleWholeCopies(usedBefore, batchSize);
+		SweepResult result = new SweepResult();
+		result.done = batch.size() < batchSize;
+		result.scanned = batch.size();
+
+		for(LContent content : batch) {
+			long freed = localRepo.dropWholeCopy(content);
+			if(freed >= 0) {
+				result.dropped++;
+				result.bytesReclaimed += freed;
+			}
+		}
+		return result;
+	}
+
+
+	//Deletes sealed packs nothing points into anymore, and copies the live content out of packs where less than
+	// minLiveRatio of the bytes are still live. Those packs are only deleted on a later pass, so any reader that looked
+	// up a location in them just before the copy has long since finished with it.
+	@NonNull
+	public SweepResult compactPacks(double minLiveRatio) {
+		//Anything appended within the grace period may belong to a write that hasn't recorded where it went yet
+		long writtenBefore = Instant.now().getEpochSecond() - gracePeriodSeconds;
+
+		SweepResult result = new SweepResult();
+		result.done = true;
+		for(int packID : localRepo.getSealedPacks(writtenBefore)) {
+			result.scanned++;
+
+			long live = localRepo.getPackLiveBytes(packID);
+			if(live == 0) {
+				long freed = localRepo.deletePackIfEmpty(packID);
+				if(freed >= 0) {
+					result.packsDeleted++;
+					result.bytesReclaimed += freed;
+				}
+			}
+			else if(live < localRepo.getPackSize(packID) * minLiveRatio) {
+				//A pack we can't read is left as it is, everything in it is still where it was
+				try {
+					localRepo.compactPack(packID);
+					result.packsCompacted++;
+				} catch (RuntimeException e) {
+					Log.w(TAG, "Couldn't compact pack "+packID, e);
+				}
+			}
+		}
+		return result;
+	}
+
+
+	public static class SweepResult {
+		@Nullable
+		public String lastName;
+		public int scanned;
+		public int deleted;
+		public int dropped;
+		public int packsCompacted;
+		public int packsDeleted;
+		public long bytesReclaimed;
+		public boolean done;
+	}
+
+
+
+	//---------------------------------------------------------------------------------------------
+	//---------------------------------------------------------------------------------------------
+
+
+	public static class CleanupWorker extends Worker {
+		private static final String TAG = "Hyb.Cleanup.Worker";
+
+		//Content must have gone unwritten for this long before it can be swept
+		private static final long GRACE_PERIOD_SECONDS = TimeUnit.HOURS.toSeconds(1);
+		//Whole copies of chunked, packed, or compressed content must have gone unread for this long before they're dropped
+		private static final long WHOLE_COPY_IDLE_SECONDS = TimeUnit.HOURS.toSeconds(1);
+		//Staging files are only ever open for as long as a single write takes
+		private static final long STAGING_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+		//Packs with less than this fraction of their bytes still live get their live content copied out
+		private static final double MIN_PACK_LIVE_RATIO = 0.5;
+
+		//Small batches with a pause between them, so the sweep never hogs the database or the disk
+		private static final int BATCH_SIZE = 100;
+		private static final long BATCH_PAUSE_MILLIS = 250;
+
+		public CleanupWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+			super(context, workerParams);
+		}
+
+
+		//Run a sweep as soon as possible, e.g. after a lot of files were deleted
+		public static void enqueue() {
+			OneTimeWorkRequest worker = new OneTimeWorkRequest.Builder(CleanupWorker.class)
+					.addTag("CLEANUP")
+					.build();
+
+			//If a sweep is already queued or running, it'll get to everything anyway
+			WorkManager workManager = WorkManager.getInstance(MyApplication.getAppContext());
+			workManager.enqueueUniqueWork("cleanup", ExistingWorkPolicy.KEEP, worker);
+		}
+
+		//Sweep once a day while the device isn't busy
+		public static void enqueuePeriodic() {
+			PeriodicWorkRequest worker = new PeriodicWorkRequest.Builder(CleanupWorker.class, 1, TimeUnit.DAYS)
+					.setConstraints(new Constraints.Builder()
+							.setRequiresBatteryNotLow(true)
+							.setRequiresDeviceIdle(true)
+							.build())
+					.addTag("CLEANUP")
+					.build();
+
+			WorkManager workManager = WorkManager.getInstance(MyApplication.getAppContext());
+			workManager.enqueueUniquePeriodicWork("cleanup_periodic", ExistingPeriodicWorkPolicy.KEEP, worker);
+		}
+
+
+
+		@NonNull
+		@Override
+		public Result doWork() {
+			Log.i(TAG, "Cleanup Worker sweeping unused content");
+
+			LocalRepo localRepo = LocalRepo.getInstance();
+			Cleanup cleanup = new Cleanup(localRepo, Sync.getInstance().zoningDAO, GRACE_PERIOD_SECONDS);
+
+			long bytesReclaimed = localRepo.purgeStagingFiles(STAGING_MAX_AGE_MILLIS);
+			int scanned = 0;
+			int deleted = 0;
+
+			String lastName = null;
+			while(true) {
+				//The sweep is cheap to redo from the start, so if we've been stopped just let WorkManager run us again later
+				if(isStopped()) {
+					Log.i(TAG, String.format("Cleanup Worker stopped after deleting %s contents, reclaiming %s bytes", deleted, bytesReclaimed));
+					return Result.retry();
+				}
+
+				SweepResult result = cleanup.sweepBatch(lastName, BATCH_SIZE);
+				scanned += result.scanned;
+				deleted += result.deleted;
+				bytesReclaimed += result.bytesReclaimed;
+				lastName = result.lastName;
+
+				if(result.done)
+					break;
+
+				try {
+					Thread.sleep(BATCH_PAUSE_MILLIS);
+				} catch (InterruptedException e) {
+					return Result.retry();
+				}
+			}
+
+			int dropped = 0;
+			long usedBefore = Instant.now().getEpochSecond() - WHOLE_COPY_IDLE_SECONDS;
+			while(true) {
+				if(isStopped()) {
+					Log.i(TAG, String.format("Cleanup Worker stopped after dropping %s whole copies, reclaiming %s bytes", dropped, bytesReclaimed));
+					return Result.retry();
+				}
+
+				SweepResult result = cleanup.dropIdleCopies(usedBefore, BATCH_SIZE);
+				dropped += result.dropped;
+				bytesReclaimed += result.bytesReclaimed;
+
+				if(result.done)
+					break;
+
+				try {
+					Thread.sleep(BATCH_PAUSE_MILLIS);
+				} catch (InterruptedException e) {
+					return Result.retry();
+				}
+			}
+
+			if(isStopped()) {
+				Log.i(TAG, String.format("Cleanup Worker stopped before compacting packs, reclaiming %s bytes", bytesReclaimed));
+				return Result.retry();
+			}
+			SweepResult packResult = cleanup.compactPacks(MIN_PACK_LIVE_RATIO);
+			bytesReclaimed += packResult.bytesReclaimed;
+
+			Log.i(TAG, String.format("Cleanup Worker finished, scanned %s contents and deleted %s, dropped %s whole copies, " +
+					"compacted %s packs and deleted %s, reclaiming %s bytes",
+					scanned, deleted, dropped, packResult.packsCompacted, packResult.packsDeleted, bytesReclaimed));
+
+			Data.Builder data = new Data.Builder();
+			data.putInt("SCANNED", scanned);
+			data.putInt("DELETED", deleted);
+			data.putInt("DROPPED", dropped);
+			data.putInt("PACKS_COMPACTED", packResult.packsCompacted);
+			data.putInt("PACKS_DELETED", packResult.packsDeleted);
+			data.putLong("BYTES_RECLAIMED", bytesReclaimed);
+			return Result.success(data.build());
+		}
+	}
 }
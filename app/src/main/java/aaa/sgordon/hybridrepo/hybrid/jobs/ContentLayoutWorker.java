@@ -0,0 +1,73 @@
+package aaa.sgordon.hybridrepo.hybrid.jobs;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import aaa.sgordon.hybridrepo.MyApplication;
+import aaa.sgordon.hybridrepo.local.LocalRepo;
+
+//Moves local content from the old flat content directory into the sharded layout, a batch at a time.
+//Content is still readable mid-migration (LContentHelper moves anything it's asked for on the fly),
+// so this can be stopped and requeued whenever without issue.
+public class ContentLayoutWorker extends Worker {
+	private static final String TAG = "Hyb.Layout.Worker";
+	private static final int BATCH_SIZE = 500;
+
+	public ContentLayoutWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+		super(context, workerParams);
+	}
+
+
+	public static void enqueue() {
+		OneTimeWorkRequest worker = new OneTimeWorkRequest.Builder(ContentLayoutWorker.class)
+				.setConstraints(new Constraints.Builder()
+						.setRequiresStorageNotLow(true)
+						.build())
+				.addTag("LAYOUT")
+				.build();
+
+		//If a migration is already queued or running, let it continue where it is
+		WorkManager workManager = WorkManager.getInstance(MyApplication.getAppContext());
+		workManager.enqueueUniqueWork("content_layout", ExistingWorkPolicy.KEEP, worker);
+	}
+
+
+
+	@NonNull
+	@Override
+	public Result doWork() {
+		LocalRepo localRepo = LocalRepo.getInstance();
+		if(localRepo.isContentLayoutMigrated())
+			return Result.success();
+
+		Log.i(TAG, "Content Layout Worker moving flat content into shards");
+
+		int totalMoved = 0;
+		int moved;
+		do {
+			//If we've been told to stop, WorkManager will run us again later and we'll pick up where we left off
+			if(isStopped()) {
+				Log.i(TAG, "Content Layout Worker stopped after moving "+totalMoved+" files");
+				return Result.retry();
+			}
+
+			moved = localRepo.migrateContentLayout(BATCH_SIZE);
+			totalMoved += moved;
+		} while (moved > 0);
+
+		Log.i(TAG, "Content Layout Worker finished, moved "+totalMoved+" files");
+
+		Data.Builder data = new Data.Builder();
+		data.putInt("MOVED", totalMoved);
+		return Result.success(data.build());
+	}
+}
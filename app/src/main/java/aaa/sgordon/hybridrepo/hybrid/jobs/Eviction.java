@@ -0,0 +1,192 @@
+package aaa.sgordon.hybridrepo.hybrid.jobs;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.io.FileNotFoundException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import aaa.sgordon.hybridrepo.MyApplication;
+import aaa.sgordon.hybridrepo.hybrid.ContentsNotFoundException;
+import aaa.sgordon.hybridrepo.hybrid.database.HZone;
+import aaa.sgordon.hybridrepo.hybrid.database.HZoningDAO;
+import aaa.sgordon.hybridrepo.hybrid.jobs.sync.Sync;
+import aaa.sgordon.hybridrepo.local.LocalRepo;
+import aaa.sgordon.hybridrepo.local.types.LFile;
+import aaa.sgordon.hybridrepo.remote.RemoteRepo;
+
+//Keeps the local content store under its storage quota, treating local as a cache in front of remote.
+//When the store is over quota, the least recently used files are zoned off of local (isLocal=false), and Cleanup
+// then removes whatever content is no longer needed. Only files whose content is safely on remote are ever evicted.
+public class Eviction {
+	private static final String TAG = "Hyb.Eviction";
+	private static final String PREFS_NAME = "hybrid.storage";
+	private static final String QUOTA_KEY = "contentQuota";
+
+	//Once over quota, evict down to this fraction of it so we aren't evicting again after every download
+	private static final double lowWatermark = 0.9;
+
+	private final LocalRepo localRepo;
+	private final RemoteRepo remoteRepo;
+	private final HZoningDAO zoningDAO;
+	private final Cleanup cleanup;
+
+	public Eviction(@NonNull LocalRepo localRepo, @NonNull RemoteRepo remoteRepo, @NonNull HZoningDAO zoningDAO, @NonNull Cleanup cleanup) {
+		this.localRepo = localRepo;
+		this.remoteRepo = remoteRepo;
+		this.zoningDAO = zoningDAO;
+		this.cleanup = cleanup;
+	}
+
+
+	//Quota in bytes, or -1 for no quota
+	public static long getQuota(@NonNull Context context) {
+		SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+		return prefs.getLong(QUOTA_KEY, -1);
+	}
+	public static void setQuota(@NonNull Context context, long quotaBytes) {
+		SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+		prefs.edit().putLong(QUOTA_KEY, quotaBytes).apply();
+	}
+
+
+	//Evicts files a batch at a time until the store is back under the low watermark, or until we run out of files
+	// that are safe to evict. Returns the number of bytes reclaimed.
+	public long evictToQuota(long quotaBytes, int batchSize) throws ConnectException {
+		long used = localRepo.getContentStorageUsed();
+		if(quotaBytes < 0 || used <= quotaBytes)
+			return 0;
+
+		long target = (long) (quotaBytes * lowWatermark);
+		Log.i(TAG, String.format("Content store over quota, evicting from %s bytes down to %s", used, target));
+
+		long reclaimed = 0;
+		LFile last = null;
+		while(used > target) {
+			List<LFile> candidates = localRepo.getLeastRecentlyUsedFiles(last, batchSize);
+			if(candidates.isEmpty())
+				break;
+			last = candidates.get(candidates.size()-1);
+
+			List<String> evictedContents = new ArrayList<>();
+			for(LFile candidate : candidates) {
+				if(evict(candidate))
+					evictedContents.add(candidate.checksum);
+			}
+
+			//Content shared with files that are still local stays put, so measure rather than guess
+			if(!evictedContents.isEmpty())
+				reclaimed += cleanup.sweepContents(evictedContents).bytesReclaimed;
+			used = localRepo.getContentStorageUsed();
+		}
+
+		Log.i(TAG, String.format("Eviction finished at %s bytes, reclaiming %s", used, reclaimed));
+		return reclaimed;
+	}
+
+
+	//Zones the file off of local if its content is safely on remote. Returns true if the file was evicted.
+	private boolean evict(@NonNull LFile candidate) throws ConnectException {
+		//New files all point here, and Cleanup never removes it anyway
+		if(candidate.checksum.equals(LFile.defaultChecksum))
+			return false;
+
+		HZone zone = zoningDAO.get(candidate.fileuid);
+		if(zone == null || !zone.isLocal || !zone.isRemote)
+			return false;
+
+		try {
+			localRepo.lock(candidate.fileuid);
+
+			//The file may have been written since we grabbed it
+			LFile props = localRepo.getFileProps(candidate.fileuid);
+
+			//The remote file could be behind local, so make sure remote has the content local points to right now
+			remoteRepo.getContentProps(props.checksum);
+
+			zone.isLocal = false;
+			zoningDAO.put(zone);
+			return true;
+		}
+		catch (FileNotFoundException | ContentsNotFoundException e) {
+			return false;
+		}
+		finally {
+			localRepo.unlock(candidate.fileuid);
+		}
+	}
+
+
+
+	//---------------------------------------------------------------------------------------------
+	//---------------------------------------------------------------------------------------------
+
+
+	public static class EvictionWorker extends Worker {
+		private static final String TAG = "Hyb.Eviction.Worker";
+
+		//Evicted content isn't being written to, so there's no need to wait around
+		private static final long GRACE_PERIOD_SECONDS = TimeUnit.MINUTES.toSeconds(1);
+		private static final int BATCH_SIZE = 50;
+
+		public EvictionWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+			super(context, workerParams);
+		}
+
+
+		//Check the quota, e.g. after downloading content or shrinking the quota
+		public static void enqueue() {
+			OneTimeWorkRequest worker = new OneTimeWorkRequest.Builder(EvictionWorker.class)
+					.setConstraints(new Constraints.Builder()
+							.setRequiredNetworkType(NetworkType.CONNECTED)	//To confirm content is on remote before evicting
+							.build())
+					.setInitialDelay(5, TimeUnit.SECONDS)	//Downloads tend to come in bunches
+					.addTag("EVICTION")
+					.build();
+
+			WorkManager workManager = WorkManager.getInstance(MyApplication.getAppContext());
+			workManager.enqueueUniqueWork("eviction", ExistingWorkPolicy.KEEP, worker);
+		}
+
+
+
+		@NonNull
+		@Override
+		public Result doWork() {
+			long quota = getQuota(getApplicationContext());
+			if(quota < 0)
+				return Result.success();
+
+			LocalRepo localRepo = LocalRepo.getInstance();
+			HZoningDAO zoningDAO = Sync.getInstance().zoningDAO;
+			Cleanup cleanup = new Cleanup(localRepo, zoningDAO, GRACE_PERIOD_SECONDS);
+			Eviction eviction = new Eviction(localRepo, RemoteRepo.getInstance(), zoningDAO, cleanup);
+
+			long reclaimed;
+			try {
+				reclaimed = eviction.evictToQuota(quota, BATCH_SIZE);
+			} catch (ConnectException e) {
+				Log.d(TAG, "Eviction Worker retrying due to connection issues!");
+				return Result.retry();
+			}
+
+			Data.Builder data = new Data.Builder();
+			data.putLong("BYTES_RECLAIMED", reclaimed);
+			return Result.success(data.build());
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package aaa.sgordon.hybridrepo.hybrid.jobs;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import aaa.sgordon.hybridrepo.MyApplication;
+import aaa.sgordon.hybridrepo.hybrid.jobs.sync.Sync;
+import aaa.sgordon.hybridrepo.local.LocalRepo;
+
+//Keeps the local journal from growing forever.
+//The journal is append-only, but the only thing that reads it is Sync, and Sync only looks at entries after its
+// local cursor. Everything at or before the cursor has been seen, so each file's entries there are collapsed into a
+// single entry holding the file's latest state. That entry keeps the journalid of the newest one, and if the file's
+// latest change was a delete it stays a tombstone.
+//The remote cursor counts remote journalids, so it has no say over what's kept here.
+public class JournalCompaction {
+	private static final String TAG = "Hyb.Compaction";
+
+	private final LocalRepo localRepo;
+
+	public JournalCompaction(@NonNull LocalRepo localRepo) {
+		this.localRepo = localRepo;
+	}
+
+
+	//Compacts the next batch of files after the given one (null to start from the beginning)
+	@NonNull
+	public CompactResult compactBatch(int horizon, @Nullable UUID afterFileUID, int batchSize) {
+		List<UUID> batch = localRepo.getFilesToCompact(horizon, afterFileUID, batchSize);
+
+		CompactResult result = new CompactResult();
+		result.done = batch.size() < batchSize;
+		result.lastFileUID = batch.isEmpty() ? afterFileUID : batch.get(batch.size()-1);
+		result.files = batch.size();
+		result.removed = localRepo.compactJournal(horizon, batch.toArray(new UUID[0]));
+		return result;
+	}
+
+
+	public static class CompactResult {
+		@Nullable
+		public UUID lastFileUID;
+		public int files;
+		public int removed;
+		public boolean done;
+	}
+
+
+
+	//---------------------------------------------------------------------------------------------
+	//---------------------------------------------------------------------------------------------
+
+
+	public static class CompactionWorker extends Worker {
+		private static final String TAG = "Hyb.Compaction.Worker";
+
+		//Each batch is one transaction, so keep them small enough that writers are never held up for long
+		private static final int BATCH_SIZE = 200;
+		private static final long BATCH_PAUSE_MILLIS = 100;
+
+		public CompactionWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+			super(context, workerParams);
+		}
+
+
+		//Compact once a day while the device isn't busy
+		public static void enqueuePeriodic() {
+			PeriodicWorkRequest worker = new PeriodicWorkRequest.Builder(CompactionWorker.class, 1, TimeUnit.DAYS)
+					.setConstraints(new Constraints.Builder()
+							.setRequiresBatteryNotLow(true)
+							.setRequiresDeviceIdle(true)
+							.build())
+					.addTag("COMPACTION")
+					.build();
+
+			WorkManager workManager = WorkManager.getInstance(MyApplication.getAppContext());
+			workManager.enqueueUniquePeriodicWork("compaction_periodic", ExistingPeriodicWorkPolicy.KEEP, worker);
+		}
+
+
+
+		@NonNull
+		@Override
+		public Result doWork() {
+			//Read once up front. The cursor only ever moves forward, so anything behind it now stays behind it.
+			int horizon = Sync.getInstance().getLastSyncLocal();
+			Log.i(TAG, "Compaction Worker collapsing journal entries up to journalID="+horizon);
+
+			JournalCompaction compaction = new JournalCompaction(LocalRepo.getInstance());
+			int files = 0;
+			int removed = 0;
+
+			UUID lastFileUID = null;
+			while(true) {
+				//Every batch is committed on its own, so if we've been stopped there's nothing to undo
+				if(isStopped()) {
+					Log.i(TAG, String.format("Compaction Worker stopped after removing %s entries", removed));
+					return Result.retry();
+				}
+
+				CompactResult result = compaction.compactBatch(horizon, lastFileUID, BATCH_SIZE);
+				files += result.files;
+				removed += result.removed;
+				lastFileUID = result.lastFileUID;
+
+				if(result.done)
+					break;
+
+				try {
+					Thread.sleep(BATCH_PAUSE_MILLIS);
+				} catch (InterruptedException e) {
+					return Result.retry();
+				}
+			}
+
+			Log.i(TAG, String.format("Compaction Worker finished, compacted %s files and removed %s entries", files, removed));
+
+			Data.Builder data = new Data.Builder();
+			data.putInt("FILES", files);
+			data.putInt("REMOVED", removed);
+			return Result.success(data.build());
+		}
+	}
+}
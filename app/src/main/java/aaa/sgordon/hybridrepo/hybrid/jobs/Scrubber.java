@@ -0,0 +1,231 @@
+package aaa.sgordon.hybridrepo.hybrid.jobs;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.net.ConnectException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import aaa.sgordon.hybridrepo.MyApplication;
+import aaa.sgordon.hybridrepo.TokenBucket;
+import aaa.sgordon.hybridrepo.hybrid.ContentsNotFoundException;
+import aaa.sgordon.hybridrepo.hybrid.database.HZone;
+import aaa.sgordon.hybridrepo.hybrid.database.HZoningDAO;
+import aaa.sgordon.hybridrepo.hybrid.jobs.sync.Sync;
+import aaa.sgordon.hybridrepo.local.LocalRepo;
+import aaa.sgordon.hybridrepo.local.types.LContent;
+import aaa.sgordon.hybridrepo.local.types.LFile;
+import aaa.sgordon.hybridrepo.remote.RemoteRepo;
+
+//Makes sure local content still hashes to its name, catching bit rot and half-written files.
+//Content is re-hashed a batch at a time across all cores, with every thread sharing one read budget so scrubbing
+// never saturates the disk. Anything corrupted is re-downloaded from remote if one of its files is zoned there.
+public class Scrubber {
+	private static final String TAG = "Hyb.Scrubber";
+
+	private final LocalRepo localRepo;
+	private final RemoteRepo remoteRepo;
+	private final HZoningDAO zoningDAO;
+	private final ExecutorService executor;
+	private final TokenBucket throttle;
+
+	public Scrubber(@NonNull LocalRepo localRepo, @NonNull RemoteRepo remoteRepo, @NonNull HZoningDAO zoningDAO,
+					@NonNull ExecutorService executor, @NonNull TokenBucket throttle) {
+		this.localRepo = localRepo;
+		this.remoteRepo = remoteRepo;
+		this.zoningDAO = zoningDAO;
+		this.executor = executor;
+		this.throttle = throttle;
+	}
+
+
+	//Verifies the next batch of content not verified since verifiedBefore, starting after the given name.
+	@NonNull
+	public ScrubResult scrubBatch(long verifiedBefore, @Nullable String afterName, int batchSize) throws InterruptedException {
+		List<LContent> batch = localRepo.getUnverifiedContentProps(verifiedBefore, afterName, batchSize);
+		ScrubResult result = new ScrubResult();
+		result.done = batch.size() < batchSize;
+		result.lastName = batch.isEmpty() ? afterName : batch.get(batch.size()-1).name;
+
+		List<Future<Boolean>> verifications = new ArrayList<>();
+		for(LContent content : batch)
+			verifications.add(executor.submit(() -> localRepo.verifyContents(content.name, throttle)));
+
+		for(int i = 0; i < batch.size(); i++) {
+			LContent content = batch.get(i);
+			try {
+				boolean intact = verifications.get(i).get();
+				result.verified++;
+				result.bytesRead += content.storedsize;
+				if(intact)
+					continue;
+
+				result.corrupted++;
+				if(repair(content))
+					result.repaired++;
+			}
+			catch (ExecutionException e) {
+				//Deleted out from under us, which is fine. Anything else we'll just try again next time.
+				if(!(e.getCause() instanceof ContentsNotFoundException))
+					Log.w(TAG, "Could not verify content name='"+content.name+"'", e.getCause());
+			}
+		}
+
+		return result;
+	}
+
+
+	//Re-downloads the content from remote, as long as a file using it is zoned there. Returns true if repaired.
+	private boolean repair(@NonNull LContent content) {
+		List<UUID> users = new ArrayList<>();
+		for(LFile file : localRepo.getFilesUsingContents(List.of(content.name)))
+			users.add(file.fileuid);
+
+		boolean onRemote = false;
+		if(!users.isEmpty()) {
+			for(HZone zone : zoningDAO.get(users.toArray(new UUID[0])))
+				onRemote |= zone.isRemote;
+		}
+		if(!onRemote) {
+			Log.e(TAG, "Content is corrupted and no remote copy is known! Name='"+content.name+"'");
+			return false;
+		}
+
+		try {
+			Uri remoteContent = remoteRepo.getContentDownloadUri(content.checksum);
+			localRepo.repairContents(content.name, remoteContent);
+			Log.i(TAG, "Repaired corrupted content from remote. Name='"+content.name+"'");
+			return true;
+		}
+		catch (ContentsNotFoundException e) {
+			Log.e(TAG, "Content is corrupted and remote doesn't have it! Name='"+content.name+"'");
+			return false;
+		}
+		catch (ConnectException e) {
+			Log.w(TAG, "Could not reach remote to repair content, will retry next scrub. Name='"+content.name+"'");
+			return false;
+		}
+		catch (RuntimeException e) {
+			//Most likely the download didn't hash to the content's name
+			Log.e(TAG, "Repairing content from remote failed! Name='"+content.name+"'", e);
+			return false;
+		}
+	}
+
+
+	public static class ScrubResult {
+		@Nullable
+		public String lastName;
+		public int verified;
+		public int corrupted;
+		public int repaired;
+		public long bytesRead;
+		public boolean done;
+	}
+
+
+
+	//---------------------------------------------------------------------------------------------
+	//---------------------------------------------------------------------------------------------
+
+
+	public static class ScrubWorker extends Worker {
+		private static final String TAG = "Hyb.Scrubber.Worker";
+
+		//Content is re-verified about once a month
+		private static final long REVERIFY_AFTER_SECONDS = TimeUnit.DAYS.toSeconds(30);
+
+		private static final long BYTES_PER_SECOND = 16 * 1024 * 1024;
+		private static final long BURST_BYTES = 1024 * 1024;
+		private static final int BATCH_SIZE = 64;
+
+		public ScrubWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+			super(context, workerParams);
+		}
+
+
+		//Scrub about once a week, only while the device is charging and not being used
+		public static void enqueuePeriodic() {
+			PeriodicWorkRequest worker = new PeriodicWorkRequest.Builder(ScrubWorker.class, 7, TimeUnit.DAYS)
+					.setConstraints(new Constraints.Builder()
+							.setRequiresCharging(true)
+							.setRequiresDeviceIdle(true)
+							.build())
+					.addTag("SCRUB")
+					.build();
+
+			WorkManager workManager = WorkManager.getInstance(MyApplication.getAppContext());
+			workManager.enqueueUniquePeriodicWork("scrub_periodic", ExistingPeriodicWorkPolicy.KEEP, worker);
+		}
+
+
+
+		@NonNull
+		@Override
+		public Result doWork() {
+			Log.i(TAG, "Scrub Worker verifying local content");
+
+			int threads = Runtime.getRuntime().availableProcessors();
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			Scrubber scrubber = new Scrubber(LocalRepo.getInstance(), RemoteRepo.getInstance(), Sync.getInstance().zoningDAO,
+					executor, new TokenBucket(BYTES_PER_SECOND, BURST_BYTES));
+
+			long verifiedBefore = Instant.now().getEpochSecond() - REVERIFY_AFTER_SECONDS;
+			int verified = 0, corrupted = 0, repaired = 0;
+
+			try {
+				String lastName = null;
+				while(true) {
+					//Everything verified so far is recorded, so a later run will pick up the rest
+					if(isStopped()) {
+						Log.i(TAG, String.format("Scrub Worker stopped after verifying %s contents", verified));
+						return Result.retry();
+					}
+
+					ScrubResult result = scrubber.scrubBatch(verifiedBefore, lastName, BATCH_SIZE);
+					verified += result.verified;
+					corrupted += result.corrupted;
+					repaired += result.repaired;
+					lastName = result.lastName;
+
+					if(result.done)
+						break;
+				}
+			}
+			catch (InterruptedException e) {
+				return Result.retry();
+			}
+			finally {
+				executor.shutdownNow();
+			}
+
+			Log.i(TAG, String.format("Scrub Worker finished, verified %s contents, found %s corrupted, repaired %s",
+					verified, corrupted, repaired));
+
+			Data.Builder data = new Data.Builder();
+			data.putInt("VERIFIED", verified);
+			data.putInt("CORRUPTED", corrupted);
+			data.putInt("REPAIRED", repaired);
+			return Result.success(data.build());
+		}
+	}
+}
@@ -22,6 +22,7 @@ import aaa.sgordon.hybridrepo.hybrid.ContentsNotFoundException;
 import aaa.sgordon.hybridrepo.hybrid.database.HZone;
 import aaa.sgordon.hybridrepo.hybrid.database.HZoningDAO;
 import aaa.sgordon.hybridrepo.hybrid.database.HybridHelpDatabase;
+import aaa.sgordon.hybridrepo.hybrid.jobs.Eviction;
 import aaa.sgordon.hybridrepo.hybrid.types.HFile;
 import aaa.sgordon.hybridrepo.local.LocalRepo;
 import aaa.sgordon.hybridrepo.local.database.LocalDatabase;
@@ -181,8 +182,7 @@ public class Sync {
 		}
 
 		//If the latest local journal has "isdeleted=true"...
-		if(localHasChanges && localLatestChange.get(0).changes.has("isdeleted") &&
-				localLatestChange.get(0).changes.get("isdeleted").getAsBoolean()) {
+		if(localHasChanges && localLatestChange.get(0).isdeleted) {
 			try {
 				//Remove the file from Remote
 				remoteRepo.deleteFileProps(fileUID);
@@ -288,6 +288,9 @@ public class Sync {
 				if(zoningInfo.isLocal && !remoteProps.checksum.equals(localProps.checksum)) {
 					Uri remoteContent = remoteRepo.getContentDownloadUri(remoteProps.checksum);
 					localRepo.writeContents(remoteProps.checksum, remoteContent);
+
+					//That download may have pushed local over its quota
+					Eviction.EvictionWorker.enqueue();
 				}
 
 				//Copy over all file properties, which happen to include the attributes we may need to copy
@@ -22,6 +22,7 @@ import java.io.FileNotFoundException;
 import java.net.ConnectException;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -91,8 +92,8 @@ public class SyncWorkers {
 
 
 
-			//Get all the files with changes since the journalIDs specified
-			List<LJournal> localFilesChanged = localRepo.getLatestChangesFor(lastSyncLocal, accountUID, null);
+			//Get all the files with changes since the journalIDs specified.
+			//Remote comes first so that if it can't be reached, we haven't queued anything yet.
 			List<RJournal> remoteFilesChanged;
 			try {
 				remoteFilesChanged = remoteRepo.getLatestChangesFor(lastSyncRemote, accountUID, null);
@@ -101,24 +102,26 @@ public class SyncWorkers {
 				return Result.retry();
 			}
 
-
-			//And grab the data we need from them
-			Set<UUID> filesChanged = new HashSet<>();
+			Set<UUID> remoteOnly = new HashSet<>();
 			int newSyncLocal = lastSyncLocal;
 			int newSyncRemote = lastSyncRemote;
-
-			for(LJournal lJournal : localFilesChanged) {
-				filesChanged.add(lJournal.fileuid);
-				newSyncLocal = Math.max(newSyncLocal, lJournal.journalid);
-			}
 			for(RJournal rJournal : remoteFilesChanged) {
-				filesChanged.add(rJournal.fileuid);
+				remoteOnly.add(rJournal.fileuid);
 				newSyncRemote = Math.max(newSyncRemote, rJournal.journalid);
 			}
 
 
+			//Local changes are streamed a page at a time, since after a long while offline there could be any number.
 			//For each file with changes, start a worker to sync it
-			for(UUID fileUID : filesChanged) {
+			Iterator<LJournal> localFilesChanged = localRepo.iterateLatestChangesFor(lastSyncLocal, accountUID);
+			while(localFilesChanged.hasNext()) {
+				LJournal lJournal = localFilesChanged.next();
+				remoteOnly.remove(lJournal.fileuid);
+				newSyncLocal = Math.max(newSyncLocal, lJournal.journalid);
+
+				SyncWorker.enqueue(lJournal.fileuid, lastSyncLocal, lastSyncRemote);
+			}
+			for(UUID fileUID : remoteOnly) {
 				SyncWorker.enqueue(fileUID, lastSyncLocal, lastSyncRemote);
 			}
 
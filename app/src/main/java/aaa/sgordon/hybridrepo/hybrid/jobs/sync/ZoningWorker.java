@@ -25,6 +25,7 @@ import aaa.sgordon.hybridrepo.MyApplication;
 import aaa.sgordon.hybridrepo.hybrid.ContentsNotFoundException;
 import aaa.sgordon.hybridrepo.hybrid.database.HZone;
 import aaa.sgordon.hybridrepo.hybrid.database.HZoningDAO;
+import aaa.sgordon.hybridrepo.hybrid.jobs.Eviction;
 import aaa.sgordon.hybridrepo.hybrid.types.HFile;
 import aaa.sgordon.hybridrepo.local.LocalRepo;
 import aaa.sgordon.hybridrepo.local.types.LFile;
@@ -243,6 +244,9 @@ public class ZoningWorker extends Worker {
 					localRepo.writeContents(localProps.checksum, remoteContent);
 					localRepo.putFileProps(HFile.fromRemoteFile(remoteProps).toLocalFile(), localProps.checksum, localProps.attrhash);
 					Log.v(TAG, "Updated contents downloaded from remote.");
+
+					//That download may have pushed local over its quota
+					Eviction.EvictionWorker.enqueue();
 				}
 				return Result.success();
 			}
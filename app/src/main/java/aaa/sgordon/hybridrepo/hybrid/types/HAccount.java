@@ -3,14 +3,14 @@ package aaa.sgordon.hybridrepo.hybrid.types;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 
 import java.time.Instant;
 import java.util.Objects;
 import java.util.UUID;
 
+import aaa.sgordon.hybridrepo.Json;
+
 public class HAccount {
 	@NonNull
 	public UUID accountuid;
@@ -51,8 +51,7 @@ public class HAccount {
 
 
 	public JsonObject toJson() {
-		Gson gson = new GsonBuilder().create();
-		return gson.toJsonTree(this).getAsJsonObject();
+		return Json.toJsonObject(this);
 	}
 
 	@NonNull
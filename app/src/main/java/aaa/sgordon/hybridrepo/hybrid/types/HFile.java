@@ -2,13 +2,13 @@ package aaa.sgordon.hybridrepo.hybrid.types;
 
 import androidx.annotation.NonNull;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.time.Instant;
 import java.util.Objects;
 import java.util.UUID;
 
+import aaa.sgordon.hybridrepo.Json;
 import aaa.sgordon.hybridrepo.local.types.LFile;
 import aaa.sgordon.hybridrepo.remote.types.RFile;
 
@@ -61,7 +61,7 @@ public class HFile {
 
 
 	public JsonObject toJson() {
-		return new Gson().toJsonTree(this).getAsJsonObject();
+		return Json.toJsonObject(this);
 	}
 
 	@NonNull
@@ -0,0 +1,143 @@
+package aaa.sgordon.hybridrepo.local;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+//A read-only, seekable view of a piece of local content.
+//The underlying FileChannel is shared with other readers through ContentChannelPool, so each handle keeps its own
+// position and only ever uses positional reads. Close the handle when done to return the channel to the pool.
+//A handle can also be a window onto part of the file, e.g. one content inside a pack. Positions and sizes are then
+// relative to the window, and nothing outside of it can be read.
+public class ContentChannel implements SeekableByteChannel {
+	private final ContentChannelPool pool;
+	private final ContentChannelPool.PooledChannel pooled;
+	//Where the window starts in the file, and how long it is. A length of -1 means the whole file.
+	private final long base;
+	private final long length;
+	private long position;
+	private boolean open;
+
+	ContentChannel(@NonNull ContentChannelPool pool, @NonNull ContentChannelPool.PooledChannel pooled) {
+		this(pool, pooled, 0, -1);
+	}
+	ContentChannel(@NonNull ContentChannelPool pool, @NonNull ContentChannelPool.PooledChannel pooled, long base, long length) {
+		this.pool = pool;
+		this.pooled = pooled;
+		this.base = base;
+		this.length = length;
+		this.position = 0;
+		this.open = true;
+	}
+
+
+	@Override
+	public int read(@NonNull ByteBuffer dst) throws IOException {
+		int read = read(dst, position);
+		if(read > 0) position += read;
+		return read;
+	}
+
+	//Reads from the given position without moving this handle's position
+	public int read(@NonNull ByteBuffer dst, long position) throws IOException {
+		ensureOpen();
+		if(length < 0)
+			return pooled.channel.read(dst, position);
+
+		long remaining = length - position;
+		if(remaining <= 0)
+			return -1;
+		if(dst.remaining() <= remaining)
+			return pooled.channel.read(dst, base + position);
+
+		//Don't let the read run past the end of the window
+		int limit = dst.limit();
+		dst.limit(dst.position() + (int) remaining);
+		try {
+			return pooled.channel.read(dst, base + position);
+		} finally {
+			dst.limit(limit);
+		}
+	}
+
+
+	//Maps a range of the content into memory without copying it through the heap.
+	//The range is clamped to the end of the content.
+	@NonNull
+	public MappedByteBuffer map(long offset, long length) throws IOException {
+		ensureOpen();
+		long size = size();
+		if(offset < 0 || length < 0 || offset > size)
+			throw new IllegalArgumentException(String.format("Invalid range, offset='%s' length='%s' size='%s'", offset, length, size));
+
+		return pooled.channel.map(FileChannel.MapMode.READ_ONLY, base + offset, Math.min(length, size - offset));
+	}
+
+
+	//Hands the range straight to the target channel, letting the OS skip the copy where it can (e.g. sockets)
+	public long transferTo(long position, long count, @NonNull WritableByteChannel target) throws IOException {
+		ensureOpen();
+		if(length < 0)
+			return pooled.channel.transferTo(position, count, target);
+
+		if(position >= length)
+			return 0;
+		return pooled.channel.transferTo(base + position, Math.min(count, length - position), target);
+	}
+
+
+	@Override
+	public long position() throws IOException {
+		ensureOpen();
+		return position;
+	}
+
+	@Override
+	public SeekableByteChannel position(long newPosition) throws IOException {
+		ensureOpen();
+		if(newPosition < 0) throw new IllegalArgumentException("Position cannot be negative!");
+		this.position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return length < 0 ? pooled.channel.size() : length;
+	}
+
+
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+
+	@Override
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(!open) return;
+		open = false;
+		pool.release(pooled);
+	}
+
+	private synchronized void ensureOpen() throws ClosedChannelException {
+		if(!open) throw new ClosedChannelException();
+	}
+}
@@ -0,0 +1,96 @@
+package aaa.sgordon.hybridrepo.local;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//Keeps read-only channels open to recently read content so repeated range reads (seeking through a video,
+// thumbnails reading headers, etc) don't have to reopen the file every time.
+//Channels are reference counted, and are only actually closed once they've left the pool AND nobody is using them.
+class ContentChannelPool {
+	private final int maxOpen;
+	private final LinkedHashMap<String, PooledChannel> channels;
+
+	ContentChannelPool(int maxOpen) {
+		this.maxOpen = maxOpen;
+		//Access-ordered, so the eldest entry is always the least recently used
+		this.channels = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+
+	@NonNull
+	synchronized ContentChannel acquire(@NonNull String name, @NonNull File file) throws IOException {
+		return acquire(name, file, 0, -1);
+	}
+
+	//Hands out a window onto part of the file, sharing the same pooled channel as every other window onto it
+	@NonNull
+	synchronized ContentChannel acquire(@NonNull String name, @NonNull File file, long offset, long length) throws IOException {
+		PooledChannel pooled = channels.get(name);
+
+		if(pooled == null) {
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			pooled = new PooledChannel(channel);
+			channels.put(name, pooled);
+			trim();
+		}
+
+		pooled.refs++;
+		return new ContentChannel(this, pooled, offset, length);
+	}
+
+
+	synchronized void release(@NonNull PooledChannel pooled) throws IOException {
+		pooled.refs--;
+		if(pooled.refs <= 0 && pooled.evicted)
+			pooled.channel.close();
+	}
+
+
+	//Drops any pooled channel for the given content, e.g. when the content is deleted
+	synchronized void evict(@NonNull String name) throws IOException {
+		PooledChannel pooled = channels.remove(name);
+		if(pooled != null) retire(pooled);
+	}
+
+	synchronized void evictAll() throws IOException {
+		for(PooledChannel pooled : channels.values())
+			retire(pooled);
+		channels.clear();
+	}
+
+
+	private void trim() throws IOException {
+		Iterator<Map.Entry<String, PooledChannel>> it = channels.entrySet().iterator();
+		while(channels.size() > maxOpen && it.hasNext()) {
+			PooledChannel eldest = it.next().getValue();
+			it.remove();
+			retire(eldest);
+		}
+	}
+
+	private void retire(@NonNull PooledChannel pooled) throws IOException {
+		pooled.evicted = true;
+		if(pooled.refs <= 0)
+			pooled.channel.close();
+	}
+
+
+	static class PooledChannel {
+		final FileChannel channel;
+		int refs;
+		boolean evicted;
+
+		PooledChannel(@NonNull FileChannel channel) {
+			this.channel = channel;
+			this.refs = 0;
+			this.evicted = false;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package aaa.sgordon.hybridrepo.local;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import aaa.sgordon.hybridrepo.local.types.LPackEntry;
+
+//Small content is appended into shared pack files instead of getting a file of its own, so writing lots of
+// tiny blobs costs a sequential append each rather than a file create, fsync, and directory update.
+//Packs are append-only. Only one pack takes appends at a time, and once it fills up a fresh one takes over.
+//Bytes belonging to deleted content are left behind as dead space, until Cleanup copies whatever is still live out of
+// a mostly-dead pack and deletes it. Pack IDs only ever count up, so a deleted pack's ID is never reused.
+class ContentPacks {
+	private static final String packSuffix = ".pack";
+
+	private final File packDir;
+	private final long maxPackSize;
+	private final ContentChannelPool channelPool;
+
+	//Guarded by the append lock (this)
+	private int activeID;
+	private FileChannel active;
+
+	ContentPacks(@NonNull File packDir, long maxPackSize, @NonNull ContentChannelPool channelPool) {
+		this.packDir = packDir;
+		this.maxPackSize = maxPackSize;
+		this.channelPool = channelPool;
+		this.activeID = -1;
+		this.active = null;
+	}
+
+
+	//Appends the content to the active pack and makes sure it's on disk before returning where it went
+	@NonNull
+	synchronized LPackEntry append(@NonNull String name, @NonNull byte[] contents) throws IOException {
+		FileChannel channel = getActivePack();
+
+		long offset = channel.size();
+		ByteBuffer buffer = ByteBuffer.wrap(contents);
+		while(buffer.hasRemaining())
+			channel.write(buffer, offset + buffer.position());
+		channel.force(false);
+
+		return new LPackEntry(name, activeID, offset, contents.length);
+	}
+
+
+	//Opens a channel over just the packed content, straight out of its pack
+	@NonNull
+	ContentChannel open(@NonNull LPackEntry entry) throws IOException {
+		return channelPool.acquire(getPoolKey(entry.packid), getPackLocation(entry.packid), entry.offset, entry.length);
+	}
+
+	@NonNull
+	byte[] read(@NonNull LPackEntry entry) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+
+		//Packs are read through the shared pool like any other content
+		try (ContentChannel channel = open(entry)) {
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer, buffer.position()) < 0)
+					throw new EOFException("Pack "+entry.packid+" ends before packed content '"+entry.name+"'");
+			}
+		}
+		return buffer.array();
+	}
+
+
+	//Packs that no longer take appends and haven't been written to since the given time (epoch millis), oldest first.
+	//The newest pack is never included, even once it's full, so the next pack ID can always be found from the disk.
+	@NonNull
+	synchronized List<Integer> getSealedPacks(long writtenBeforeMillis) {
+		int newest = Math.max(activeID, findNewestPack());
+
+		List<Integer> sealed = new ArrayList<>();
+		for(int packID : listPacks()) {
+			if(packID < newest && getPackLocation(packID).lastModified() < writtenBeforeMillis)
+				sealed.add(packID);
+		}
+		Collections.sort(sealed);
+		return sealed;
+	}
+
+	long getPackSize(int packID) {
+		return getPackLocation(packID).length();
+	}
+
+	//Bytes every pack takes up on disk, dead space included
+	long getTotalSize() {
+		long total = 0;
+		for(int packID : listPacks())
+			total += getPackSize(packID);
+		return total;
+	}
+
+	//Returns the number of bytes freed. Nothing may point into the pack anymore.
+	synchronized long delete(int packID) {
+		if(packID >= Math.max(activeID, findNewestPack()))
+			throw new IllegalArgumentException("Pack "+packID+" is still taking appends!");
+
+		//Any readers already holding a channel can finish up, but no new ones should get the old pack
+		try { channelPool.evict(getPoolKey(packID)); }
+		catch (IOException ignored) { }
+
+		File pack = getPackLocation(packID);
+		long length = pack.length();
+		return pack.delete() ? length : 0;
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+
+	@NonNull
+	private FileChannel getActivePack() throws IOException {
+		if(active == null) {
+			Files.createDirectories(packDir.toPath());
+			activeID = findNewestPack();
+			if(activeID < 0) activeID = 0;
+			active = openPack(activeID);
+		}
+
+		if(active.size() >= maxPackSize) {
+			active.close();
+			activeID++;
+			active = openPack(activeID);
+		}
+
+		return active;
+	}
+
+	@NonNull
+	private FileChannel openPack(int packID) throws IOException {
+		return FileChannel.open(getPackLocation(packID).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	private int findNewestPack() {
+		int newest = -1;
+		for(int packID : listPacks())
+			newest = Math.max(newest, packID);
+		return newest;
+	}
+
+	@NonNull
+	private List<Integer> listPacks() {
+		List<Integer> packIDs = new ArrayList<>();
+
+		String[] packs = packDir.list();
+		if(packs == null) return packIDs;
+
+		for(String pack : packs) {
+			if(!pack.endsWith(packSuffix)) continue;
+			try {
+				packIDs.add(Integer.parseInt(pack.substring(0, pack.length() - packSuffix.length())));
+			} catch (NumberFormatException ignored) { }
+		}
+		return packIDs;
+	}
+
+
+	@NonNull
+	private File getPackLocation(int packID) {
+		return new File(packDir, packID + packSuffix);
+	}
+
+	//Pool keys are otherwise content hashes, which can never look like this
+	@NonNull
+	private String getPoolKey(int packID) {
+		return "pack-" + packID;
+	}
+}
@@ -0,0 +1,185 @@
+package aaa.sgordon.hybridrepo.local;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import aaa.sgordon.hybridrepo.local.types.LFile;
+
+//Keeps recently read file props in memory, since Sync, zoning and HybridAPI tend to read the same row several times
+// over the course of one operation.
+//LocalRepo writes through the cache whenever it changes a file. Room also reports every change to the file table, but
+// not which rows changed or who changed them, so on each report LocalRepo checks every cached row against the database
+// to catch whatever gets written around it.
+//Props are copied going in and coming out, as callers are free to modify what they're handed.
+//Only plain reads are served from here. Anything checking hashes before a write still reads the database.
+public class FileCache {
+	private final int maxEntries;
+	private final LinkedHashMap<UUID, Entry> files;
+
+	//Bumped on every write and every report from Room. A read only fills the cache if nothing changed while it was
+	// hitting the database, so a slow read can't put back a row that was just replaced.
+	//Each entry also keeps the generation it was last written at, so a check against the database can tell whether
+	// the row it read is older than what's cached.
+	private long generation = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long invalidations = 0;
+
+	FileCache(int maxEntries) {
+		this.maxEntries = maxEntries;
+		//Access-ordered, so the eldest entry is always the least recently used
+		this.files = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+
+	//Returns a copy of the cached props, or null on a miss
+	@Nullable
+	synchronized LFile get(@NonNull UUID fileUID) {
+		Entry entry = files.get(fileUID);
+		if(entry == null) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return new LFile(entry.file);
+	}
+
+	//Grab this before reading from the database, then pass it to fill()
+	synchronized long generation() {
+		return generation;
+	}
+
+	//Caches props just read from the database, unless something changed since the read started
+	synchronized void fill(@NonNull LFile file, long readGeneration) {
+		if(readGeneration != generation)
+			return;
+		files.put(file.fileuid, new Entry(new LFile(file), generation));
+		trim();
+	}
+
+
+	//Write-through for props LocalRepo just committed
+	synchronized void put(@NonNull LFile file) {
+		generation++;
+		files.put(file.fileuid, new Entry(new LFile(file), generation));
+		trim();
+	}
+
+	synchronized void setAccessTime(@NonNull UUID fileUID, long accessTime) {
+		generation++;
+		Entry entry = files.get(fileUID);
+		if(entry != null) {
+			entry.file.accesstime = accessTime;
+			entry.written = generation;
+		}
+	}
+
+	synchronized void remove(@NonNull UUID fileUID) {
+		generation++;
+		files.remove(fileUID);
+	}
+
+
+	//For Room's report that the file table changed. Reads already in flight may have seen the old rows, so they no
+	// longer get to fill. Read the rows in cachedFiles() after this, then hand them to revalidate().
+	synchronized long startRevalidation() {
+		return ++generation;
+	}
+
+	@NonNull
+	synchronized List<UUID> cachedFiles() {
+		return new ArrayList<>(files.keySet());
+	}
+
+	//Brings each checked entry in line with current, the rows read from the database after startRevalidation().
+	//Entries missing from current were deleted. Entries written since the read started are newer than it, and are left.
+	synchronized void revalidate(@NonNull Collection<UUID> checked, @NonNull Map<UUID, LFile> current, long readGeneration) {
+		for(UUID fileUID : checked) {
+			Entry entry = files.get(fileUID);
+			if(entry == null || entry.written > readGeneration)
+				continue;
+
+			LFile file = current.get(fileUID);
+			if(file == null) {
+				files.remove(fileUID);
+				invalidations++;
+			}
+			else if(!file.equals(entry.file)) {
+				//Replaced in place, so the refresh doesn't count as a use
+				entry.file = new LFile(file);
+				entry.written = readGeneration;
+				invalidations++;
+			}
+		}
+	}
+
+	synchronized void invalidateAll() {
+		generation++;
+		invalidations++;
+		files.clear();
+	}
+
+
+	private void trim() {
+		Iterator<Map.Entry<UUID, Entry>> it = files.entrySet().iterator();
+		while(files.size() > maxEntries && it.hasNext()) {
+			it.next();
+			it.remove();
+			evictions++;
+		}
+	}
+
+
+	private static class Entry {
+		LFile file;
+		long written;
+
+		Entry(@NonNull LFile file, long written) {
+			this.file = file;
+			this.written = written;
+		}
+	}
+
+
+	@NonNull
+	synchronized Stats getStats() {
+		Stats stats = new Stats();
+		stats.hits = hits;
+		stats.misses = misses;
+		stats.evictions = evictions;
+		stats.invalidations = invalidations;
+		stats.size = files.size();
+		return stats;
+	}
+
+	public static class Stats {
+		public long hits;
+		public long misses;
+		public long evictions;
+		public long invalidations;
+		public int size;
+
+		public double hitRate() {
+			long requests = hits + misses;
+			return requests == 0 ? 0 : (double) hits / requests;
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return String.format("hits=%s, misses=%s, hitRate=%.3f, evictions=%s, invalidations=%s, size=%s",
+					hits, misses, hitRate(), evictions, invalidations, size);
+		}
+	}
+}
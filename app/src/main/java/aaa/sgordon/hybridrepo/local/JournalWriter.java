@@ -0,0 +1,129 @@
+package aaa.sgordon.hybridrepo.local;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import aaa.sgordon.hybridrepo.local.database.LocalDatabase;
+import aaa.sgordon.hybridrepo.local.types.LJournal;
+
+//Group commit for the journal.
+//Every change ends with a journal entry, and each insert used to be its own transaction with its own fsync. Entries
+// are queued here instead and a single thread inserts whatever has piled up in one transaction, so a burst of
+// writers from several threads costs one commit rather than one each.
+//An entry's future only completes once its transaction has committed, so anyone who waits on it gets the same
+// guarantee a direct insert gave them.
+class JournalWriter {
+	private static final String TAG = "Hyb.Local.Journal";
+
+	private final LocalDatabase database;
+	private final int maxBatch;
+	private final long windowNanos;
+	private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+	JournalWriter(@NonNull LocalDatabase database, int maxBatch, long windowMillis) {
+		this.database = database;
+		this.maxBatch = maxBatch;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+
+		Thread flusher = new Thread(this::run, "Hyb.JournalWriter");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+
+	//Completes with the entry, journalid filled in, once it's committed
+	@NonNull
+	ListenableFuture<LJournal> submit(@NonNull LJournal entry) {
+		SettableFuture<LJournal> future = SettableFuture.create();
+		queue.add(new Pending(entry, future));
+		return future;
+	}
+
+
+	private void run() {
+		List<Pending> batch = new ArrayList<>(maxBatch);
+		while(true) {
+			try {
+				batch.add(queue.take());
+				queue.drainTo(batch, maxBatch - batch.size());
+
+				//A lone entry goes out right away, so a single writer never waits on the window.
+				//If others came in with it we're likely in a burst, so linger a moment to catch the rest in the same commit.
+				if(batch.size() > 1) {
+					long deadline = System.nanoTime() + windowNanos;
+					while(batch.size() < maxBatch) {
+						long remaining = deadline - System.nanoTime();
+						if(remaining <= 0) break;
+
+						Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+						if(next == null) break;
+						batch.add(next);
+						queue.drainTo(batch, maxBatch - batch.size());
+					}
+				}
+			} catch (InterruptedException e) {
+				//Nothing interrupts us, and writers block until their entry is written, so just write what we have
+				Log.w(TAG, "Journal writer interrupted, carrying on");
+			}
+
+			flush(batch);
+			batch.clear();
+		}
+	}
+
+	private void flush(@NonNull List<Pending> batch) {
+		if(batch.isEmpty())
+			return;
+
+		LJournal[] entries = new LJournal[batch.size()];
+		for(int i = 0; i < entries.length; i++)
+			entries[i] = batch.get(i).entry;
+
+		//This is the only thread writing the journal, so nothing thrown here can be allowed to kill it. Anything,
+		// Errors included, fails the entries it hit and the writer moves on to the next batch.
+		try {
+			long[] journalIDs = database.runInTransaction(() -> database.getJournalDao().insert(entries));
+			for(int i = 0; i < entries.length; i++) {
+				entries[i].journalid = (int) journalIDs[i];
+				batch.get(i).future.set(entries[i]);
+			}
+		} catch (Throwable e) {
+			//One bad entry shouldn't fail everyone else's, so fall back to inserting each on its own
+			Log.w(TAG, "Journal batch of "+entries.length+" failed, retrying one at a time", e);
+			for(Pending pending : batch) {
+				try {
+					pending.entry.journalid = (int) database.getJournalDao().insert(pending.entry)[0];
+					pending.future.set(pending.entry);
+				} catch (Throwable ex) {
+					pending.future.setException(ex);
+				}
+			}
+		} finally {
+			//Whoever's waiting must always hear back, even if something above blew up partway through
+			for(Pending pending : batch) {
+				if(!pending.future.isDone())
+					pending.future.setException(new IllegalStateException("Journal entry was never written"));
+			}
+		}
+	}
+
+
+	private static class Pending {
+		final LJournal entry;
+		final SettableFuture<LJournal> future;
+
+		Pending(@NonNull LJournal entry, @NonNull SettableFuture<LJournal> future) {
+			this.entry = entry;
+			this.future = future;
+		}
+	}
+}
@@ -3,42 +3,217 @@ package aaa.sgordon.hybridrepo.local;
 import android.net.Uri;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
-import java.security.DigestOutputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
 
-import aaa.sgordon.hybridrepo.Utilities;
+import aaa.sgordon.hybridrepo.TokenBucket;
+import aaa.sgordon.hybridrepo.hashing.Checksum;
+import aaa.sgordon.hybridrepo.hashing.ContentHasher;
+import aaa.sgordon.hybridrepo.hashing.HashAlgorithm;
+import aaa.sgordon.hybridrepo.local.chunking.FastCDC;
 import aaa.sgordon.hybridrepo.local.types.LContent;
+import aaa.sgordon.hybridrepo.local.types.LContentChunk;
+import aaa.sgordon.hybridrepo.local.types.LPackEntry;
 
 //TODO Move the content out of the data dir in case the app is deleted
 
 public class LContentHelper {
 	private static final String TAG = "Hyb.Local.Cont";
 	private static final String contentDir = "content";
+	private static final String migratedMarker = ".sharded";
+	private static final String stagingDir = ".staging";
+	private static final String chunkDir = "chunks";
+	private static final String deflateSuffix = ".deflate";
+	private static final String packDir = "packs";
+	private static final long maxPackSize = 64 * 1024 * 1024;
+
+	//Content only gets compressed when a sample of it shrinks to below this fraction of its size
+	private static final double worthwhileRatio = 0.8;
+	private static final int sampleSize = 64 * 1024;
+	private static final int minCompressSize = 4 * 1024;
+
+	//Content is fanned out into nested subdirectories named by the leading characters of its hash,
+	// e.g. content/AB/CD/ABCD...  This keeps each directory small enough for fast lookups.
+	private static final int shardWidth = 2;
+	private static final int shardDepth = 2;
+
+	private static final int maxOpenChannels = 16;
+
+	//Content sizes are ints everywhere they're recorded, locally and in the remote, so nothing bigger can be stored
+	static final long maxContentSize = Integer.MAX_VALUE;
+
 	private final String storageDir;
+	private volatile boolean flatLayoutMigrated;
+	private final ContentChannelPool channelPool;
+	private final ContentPacks packs;
+	//What newly imported content is named by. Content written under a given name is always hashed the way the name says.
+	private volatile HashAlgorithm hashAlgorithm = HashAlgorithm.SHA256;
 
 	public LContentHelper(@NonNull String storageDir) {
 		//Contents are stored in the app's data directory
 		this.storageDir = storageDir;
+		this.channelPool = new ContentChannelPool(maxOpenChannels);
+		this.packs = new ContentPacks(new File(storageDir, packDir), maxPackSize, channelPool);
+		this.flatLayoutMigrated = new File(getContentRoot(), migratedMarker).exists();
 	}
 
 
+	@NonNull
+	public HashAlgorithm getHashAlgorithm() {
+		return hashAlgorithm;
+	}
+	public void setHashAlgorithm(@NonNull HashAlgorithm hashAlgorithm) {
+		this.hashAlgorithm = hashAlgorithm;
+	}
+
+
+	@NonNull
+	private File getContentRoot() {
+		//Content is stored in a content subdirectory
+		return new File(storageDir, contentDir);
+	}
+
 	//WARNING: This method does not create the file or parent directory, it only provides the location
 	@NonNull
 	private File getContentLocationOnDisk(@NonNull String hash) {
-		//Content is stored in a content subdirectory
-		File contentRoot = new File(storageDir, contentDir);
+		//With each content file named by its checksum
+		return getShardedLocation(getContentRoot(), hash);
+	}
+
+	@NonNull
+	private File getChunkLocationOnDisk(@NonNull String hash) {
+		//Chunks are sharded exactly like whole content, just under their own directory
+		return getShardedLocation(new File(storageDir, chunkDir), hash);
+	}
+
+	@NonNull
+	private static File getShardedLocation(@NonNull File root, @NonNull String hash) {
+		File shardDir = root;
+
+		//Shard on the digest itself, so content from every algorithm spreads out the same way
+		String hex = HashAlgorithm.hexOf(hash);
+
+		//Names too short to shard (there shouldn't be any) just live in the root
+		if(hex.length() >= shardWidth * shardDepth) {
+			for(int i = 0; i < shardDepth; i++)
+				shardDir = new File(shardDir, hex.substring(i * shardWidth, (i+1) * shardWidth));
+		}
+
+		//Colons aren't allowed everywhere a content directory might end up
+		return new File(shardDir, hash.replace(':', '_'));
+	}
+
+	//Where content was stored before sharding, directly in the content root
+	@NonNull
+	private File getFlatLocationOnDisk(@NonNull String hash) {
+		return new File(getContentRoot(), hash);
+	}
+
+
+	//Returns the sharded location of the given content, first moving it there if it's still in the old flat layout.
+	//This lets the store keep working while migrateFlatLayout() is making its way through the content directory.
+	@NonNull
+	private File resolveContentLocation(@NonNull String hash) throws IOException {
+		File sharded = getContentLocationOnDisk(hash);
+		if(flatLayoutMigrated || sharded.exists())
+			return sharded;
+
+		File flat = getFlatLocationOnDisk(hash);
+		if(flat.isFile() && !flat.equals(sharded))
+			moveToShard(flat.toPath(), sharded.toPath());
 
-		//With each content file named by its SHA256 hash
-		return new File(contentRoot, hash);
+		return sharded;
+	}
+
+	private void moveToShard(@NonNull Path flat, @NonNull Path sharded) throws IOException {
+		Files.createDirectories(sharded.getParent());
+		try {
+			Files.move(flat, sharded, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (FileAlreadyExistsException e) {
+			//Someone else migrated this content first. Contents are named by hash, so they're identical.
+			Files.deleteIfExists(flat);
+		}
+		catch (NoSuchFileException e) {
+			//Someone else migrated this content first
+		}
+	}
+
+
+	//Moves up to batchSize content files from the old flat layout into their shards.
+	//Migration is resumable, as anything left in the content root hasn't been moved yet.
+	//Returns the number of files moved. Once this returns 0, the migration is complete.
+	public int migrateFlatLayout(int batchSize) throws IOException {
+		if(flatLayoutMigrated)
+			return 0;
+
+		File contentRoot = getContentRoot();
+		if(!contentRoot.exists()) {
+			markFlatLayoutMigrated();
+			return 0;
+		}
+
+
+		int moved = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(contentRoot.toPath())) {
+			for(Path entry : stream) {
+				if(moved >= batchSize)
+					return moved;
+
+				//Skip the shard directories themselves, along with any of our own hidden files
+				String name = entry.getFileName().toString();
+				if(name.startsWith(".") || !Files.isRegularFile(entry))
+					continue;
+
+				Path sharded = getContentLocationOnDisk(name).toPath();
+				if(entry.equals(sharded))
+					continue;
+
+				moveToShard(entry, sharded);
+				moved++;
+			}
+		}
+
+		//If we made it through the whole directory without filling a batch, nothing flat remains
+		if(moved < batchSize)
+			markFlatLayoutMigrated();
+
+		return moved;
+	}
+
+	private void markFlatLayoutMigrated() throws IOException {
+		File marker = new File(getContentRoot(), migratedMarker);
+		Files.createDirectories(marker.toPath().getParent());
+		if(!marker.exists())
+			Files.createFile(marker.toPath());
+
+		flatLayoutMigrated = true;
+	}
+	public boolean isFlatLayoutMigrated() {
+		return flatLayoutMigrated;
 	}
 
 
@@ -47,64 +222,634 @@ public class LContentHelper {
 
 	//WARNING: The file at the end of this uri may not exist
 	@NonNull
-	public Uri getContentUri(@NonNull String name) {
-		File contents = getContentLocationOnDisk(name);
+	public Uri getContentUri(@NonNull String name) throws IOException {
+		File contents = resolveContentLocation(name);
 		return Uri.fromFile(contents);
 	}
 
 
-	public LContent writeContents(@NonNull String name, @NonNull byte[] contents) throws IOException {
-		File destinationFile = getContentLocationOnDisk(name);
+	//Opens a pooled, read-only channel to the content. Close it when done to hand it back to the pool.
+	@NonNull
+	public ContentChannel openContents(@NonNull String name) throws IOException {
+		File contents = resolveContentLocation(name);
+		return channelPool.acquire(name, contents);
+	}
 
-		if(!destinationFile.exists()) {
-			Files.createDirectories(destinationFile.toPath().getParent());
-			Files.createFile(destinationFile.toPath());
-		}
 
+	//All writes go to a staging file private to the writer and are then published into the content's slot.
+	//Concurrent writers never touch each other's files, and readers never see a partially written blob.
+	public LContent writeContents(@NonNull String name, @NonNull byte[] contents) throws IOException {
+		return writeContents(name, Checksum.of(HashAlgorithm.of(name), contents), contents);
+	}
+
+	//Writes contents that have already been hashed, without hashing them again
+	public LContent writeContents(@NonNull String name, @NonNull Checksum checksum, @NonNull byte[] contents) throws IOException {
+		if(!checksum.isOf(contents))
+			throw new IllegalArgumentException("Checksum was not computed from these contents!");
 
-		try(OutputStream out = Files.newOutputStream(destinationFile.toPath());
-			DigestOutputStream dos = new DigestOutputStream(out, MessageDigest.getInstance("SHA-256"))) {
+		File stagingFile = createStagingFile();
 
-			dos.write(contents);
-			String fileHash = Utilities.bytesToHex(dos.getMessageDigest().digest());
+		try {
+			String fileHash = checksum.value;
+			try (FileOutputStream out = new FileOutputStream(stagingFile)) {
+				out.write(contents);
+				out.getFD().sync();
+			}
 
+			commitStagingFile(stagingFile, name);
 			return new LContent(name, fileHash, contents.length);
 		}
-		catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+		finally {
+			Files.deleteIfExists(stagingFile.toPath());
+		}
 	}
 
 
 	public LContent writeContents(@NonNull String name, @NonNull Uri source) throws IOException {
-		File destinationFile = getContentLocationOnDisk(name);
+		File stagingFile = createStagingFile();
+
+		try {
+			String fileHash = stageFrom(source, stagingFile, HashAlgorithm.of(name));
+			int fileSize = checkContentSize(stagingFile.length());
 
-		if(!destinationFile.exists()) {
-			Files.createDirectories(destinationFile.toPath().getParent());
-			Files.createFile(destinationFile.toPath());
+			//Content is named by its hash, so anything else means the source is bad or was cut off
+			if(!fileHash.equals(name))
+				throw new IOException(String.format("Written contents don't match their name! Name='%s', hash='%s'", name, fileHash));
+
+			commitStagingFile(stagingFile, name);
+			return new LContent(name, fileHash, fileSize);
+		}
+		finally {
+			Files.deleteIfExists(stagingFile.toPath());
 		}
+	}
+
 
+	//Streams the source into the content store exactly once, naming it by its hash under the current algorithm.
+	//The content is written to a staging file and then renamed into the slot named by its hash.
+	public LContent importContents(@NonNull Uri source) throws IOException {
+		File stagingFile = createStagingFile();
+
+		try {
+			String fileHash = stageFrom(source, stagingFile, hashAlgorithm);
+			int fileSize = checkContentSize(stagingFile.length());
+
+			commitStagingFile(stagingFile, fileHash);
+			return new LContent(fileHash, fileHash, fileSize);
+		}
+		finally {
+			//If the commit went through this is already gone, otherwise don't leave it lying around
+			Files.deleteIfExists(stagingFile.toPath());
+		}
+	}
+
+
+	//Opens a writer that streams content into the store, naming it by its hash once committed
+	@NonNull
+	public LContentWriter openContentWriter() throws IOException {
+		return new LContentWriter(this, createStagingFile(), hashAlgorithm.newHasher());
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+
+
+	//Checked before anything is published, so oversized content never makes it into the store
+	static int checkContentSize(long size) throws IOException {
+		if(size > maxContentSize)
+			throw new IOException(String.format("Contents are too large to store! Size='%s', max='%s'", size, maxContentSize));
+		return (int) size;
+	}
+
+	//Staging files live inside the content directory so that committing them is a same-filesystem rename
+	@NonNull
+	private File createStagingFile() throws IOException {
+		File staging = new File(getContentRoot(), stagingDir);
+		Files.createDirectories(staging.toPath());
+		return Files.createTempFile(staging.toPath(), "stage", null).toFile();
+	}
+
+	//Copies the source into the staging file, returning the hash of what was written.
+	//Tree hashes are faster to compute across cores from the finished file, which is still in the page cache,
+	// so for those the copy doesn't hash at all.
+	@NonNull
+	private String stageFrom(@NonNull Uri source, @NonNull File stagingFile, @NonNull HashAlgorithm algorithm) throws IOException {
+		ContentHasher hasher = algorithm.hashesInParallel() ? null : algorithm.newHasher();
 
-		//Write the source data to the destination file
 		try (InputStream in = new URL(source.toString()).openStream();
-			 FileOutputStream out = new FileOutputStream(destinationFile);
-			 DigestOutputStream dos = new DigestOutputStream(out, MessageDigest.getInstance("SHA-256"))) {
+			 FileOutputStream out = new FileOutputStream(stagingFile)) {
 
-			byte[] dataBuffer = new byte[1024];
+			byte[] dataBuffer = new byte[8192];
 			int bytesRead;
-			while ((bytesRead = in.read(dataBuffer, 0, 1024)) != -1) {
-				dos.write(dataBuffer, 0, bytesRead);
+			while ((bytesRead = in.read(dataBuffer, 0, dataBuffer.length)) != -1) {
+				out.write(dataBuffer, 0, bytesRead);
+				if(hasher != null) hasher.update(dataBuffer, 0, bytesRead);
 			}
 
-			String fileHash = Utilities.bytesToHex(dos.getMessageDigest().digest());
-			int fileSize = (int) destinationFile.length();
+			//Make sure the data is on disk before the staging file can be published
+			out.getFD().sync();
+		}
 
-			return new LContent(name, fileHash, fileSize);
+		return hasher != null ? hasher.finish() : algorithm.hashFile(stagingFile);
+	}
+
+
+	//Publishes a staging file into the slot for the given name. First writer wins: if the slot is
+	// already filled, the staging file is discarded and the existing content is left untouched.
+	//Returns true if this staging file was the one published.
+	boolean commitStagingFile(@NonNull File stagingFile, @NonNull String name) throws IOException {
+		return publish(stagingFile, resolveContentLocation(name));
+	}
+
+	private boolean publish(@NonNull File stagingFile, @NonNull File destinationFile) throws IOException {
+		Files.createDirectories(destinationFile.toPath().getParent());
+
+		try {
+			//Linking fails atomically if anything already exists at the destination
+			Files.createLink(destinationFile.toPath(), stagingFile.toPath());
+			Files.deleteIfExists(stagingFile.toPath());
+			return true;
 		}
-		catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+		catch (FileAlreadyExistsException e) {
+			Files.deleteIfExists(stagingFile.toPath());
+			return false;
+		}
+		catch (FileSystemException e) {
+			//Anything else (out of space, I/O errors, no access) would fail the rename just the same
+			if(!isLinkUnsupported(e))
+				throw new RuntimeException(e);
+			return publishByMove(stagingFile, destinationFile);
+		}
+		catch (UnsupportedOperationException e) {
+			return publishByMove(stagingFile, destinationFile);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	//Some filesystems don't do hard links. Fall back to a rename, which replaces rather than fails if
+	// someone beats us to it. Contents are named by hash though, so the replacement is identical.
+	private boolean publishByMove(@NonNull File stagingFile, @NonNull File destinationFile) throws IOException {
+		if(destinationFile.exists()) {
+			Files.deleteIfExists(stagingFile.toPath());
+			return false;
+		}
+		Files.move(stagingFile.toPath(), destinationFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		return true;
+	}
+
+	//Filesystems without hard links refuse them with EPERM, and links can't cross filesystems (EXDEV).
+	//Neither has an exception of its own, so all there is to go on is the reason.
+	private static boolean isLinkUnsupported(@NonNull FileSystemException e) {
+		String reason = e.getReason();
+		if(reason == null) return false;
+		return reason.contains("Operation not permitted") || reason.contains("cross-device link");
 	}
 
 
-	public void deleteContents(@NonNull String name) {
-		File contentFile = getContentLocationOnDisk(name);
-		boolean del = contentFile.delete();
+	//---------------------------------------------------------------------------------------------
+	// Chunks
+	//---------------------------------------------------------------------------------------------
+
+	//Splits the whole content into content-defined chunks, storing any chunks the store doesn't already have.
+	//Returns the content's manifest. The whole content is left in place, see dropWholeContents().
+	@NonNull
+	public List<LContentChunk> chunkContents(@NonNull String name, @NonNull FastCDC chunker) throws IOException {
+		File source = resolveContentLocation(name);
+		List<LContentChunk> manifest = new ArrayList<>();
+
+		try (InputStream in = Files.newInputStream(source.toPath())) {
+			//Keep at least a full max-size chunk in the buffer whenever possible so boundaries don't depend on read sizes
+			byte[] buffer = new byte[chunker.getMaxSize() * 2];
+			int start = 0;
+			int end = 0;
+			boolean eof = false;
+			long offset = 0;
+
+			while(true) {
+				if(!eof && end - start < chunker.getMaxSize()) {
+					System.arraycopy(buffer, start, buffer, 0, end - start);
+					end -= start;
+					start = 0;
+
+					int read;
+					while(end < buffer.length && (read = in.read(buffer, end, buffer.length - end)) != -1)
+						end += read;
+					eof = end < buffer.length;
+				}
+				if(start == end)
+					break;
+
+				int length = chunker.cut(buffer, start, end - start);
+				String chunkHash = writeChunk(buffer, start, length);
+				manifest.add(new LContentChunk(name, manifest.size(), chunkHash, offset, length));
+
+				start += length;
+				offset += length;
+			}
+		}
+
+		return manifest;
+	}
+
+	//Chunks are never shared with the server, but they're still named by whatever algorithm new content uses
+	@NonNull
+	private String writeChunk(@NonNull byte[] buffer, int offset, int length) throws IOException {
+		String chunkHash = hashAlgorithm.hash(buffer, offset, length);
+
+		//Chunks are shared, so most of the time we'll already have it
+		File destinationFile = getChunkLocationOnDisk(chunkHash);
+		if(destinationFile.exists())
+			return chunkHash;
+
+		File stagingFile = createStagingFile();
+		try {
+			try (FileOutputStream out = new FileOutputStream(stagingFile)) {
+				out.write(buffer, offset, length);
+				out.getFD().sync();
+			}
+			publish(stagingFile, destinationFile);
+		} finally {
+			Files.deleteIfExists(stagingFile.toPath());
+		}
+
+		return chunkHash;
+	}
+
+
+	public boolean hasWholeContents(@NonNull String name) throws IOException {
+		return resolveContentLocation(name).exists();
+	}
+
+	public boolean hasAllChunks(@NonNull List<LContentChunk> manifest) {
+		for(LContentChunk entry : manifest) {
+			if(!getChunkLocationOnDisk(entry.chunkhash).exists())
+				return false;
+		}
+		return true;
+	}
+
+
+	//Rebuilds the whole content from its chunks so it can be read like any other content
+	public void assembleContents(@NonNull String name, @NonNull List<LContentChunk> manifest) throws IOException {
+		File stagingFile = createStagingFile();
+
+		try {
+			try (FileOutputStream out = new FileOutputStream(stagingFile)) {
+				for(LContentChunk entry : manifest)
+					Files.copy(getChunkLocationOnDisk(entry.chunkhash).toPath(), out);
+				out.getFD().sync();
+			}
+			commitStagingFile(stagingFile, name);
+		} finally {
+			Files.deleteIfExists(stagingFile.toPath());
+		}
+	}
+
+
+	//Removes the whole, uncompressed copy of content, leaving only its chunks or compressed copy.
+	//Returns the number of bytes freed.
+	public long dropWholeContents(@NonNull String name) {
+		//Any readers already holding a channel can finish up, but no new ones should get the old file
+		try { channelPool.evict(name); }
+		catch (IOException ignored) { }
+
+		long freed = deleteAndMeasure(getContentLocationOnDisk(name));
+
+		//Content that hasn't been migrated yet may still be sitting in the flat layout
+		if(!flatLayoutMigrated)
+			freed += deleteAndMeasure(getFlatLocationOnDisk(name));
+		return freed;
+	}
+
+	//Returns the number of bytes freed
+	public long deleteChunks(@NonNull List<String> chunkHashes) {
+		long freed = 0;
+		for(String chunkHash : chunkHashes)
+			freed += deleteAndMeasure(getChunkLocationOnDisk(chunkHash));
+		return freed;
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+	// Compression
+	//---------------------------------------------------------------------------------------------
+
+	@NonNull
+	private File getCompressedLocationOnDisk(@NonNull String hash) {
+		//Compressed content sits right next to where its uncompressed copy would be
+		File whole = getContentLocationOnDisk(hash);
+		return new File(whole.getParentFile(), hash + deflateSuffix);
+	}
+
+
+	//Compresses the content if a sample of it suggests compression will pay off.
+	//Returns the compressed size, or -1 if the content was left uncompressed.
+	//The whole, uncompressed copy is left in place, see dropWholeContents().
+	public long compressContents(@NonNull String name) throws IOException {
+		File source = resolveContentLocation(name);
+		if(!isWorthCompressing(source))
+			return -1;
+
+		File stagingFile = createStagingFile();
+		try {
+			try (InputStream in = Files.newInputStream(source.toPath());
+				 FileOutputStream fos = new FileOutputStream(stagingFile);
+				 DeflaterOutputStream out = new DeflaterOutputStream(new BufferedOutputStream(fos, 65536))) {
+
+				byte[] dataBuffer = new byte[65536];
+				int bytesRead;
+				while ((bytesRead = in.read(dataBuffer, 0, dataBuffer.length)) != -1) {
+					out.write(dataBuffer, 0, bytesRead);
+				}
+
+				out.finish();
+				out.flush();
+				fos.getFD().sync();
+			}
+
+			//The sample isn't always representative
+			long storedSize = stagingFile.length();
+			if(storedSize >= source.length() * worthwhileRatio)
+				return -1;
+
+			publish(stagingFile, getCompressedLocationOnDisk(name));
+			return storedSize;
+		} finally {
+			Files.deleteIfExists(stagingFile.toPath());
+		}
+	}
+
+
+	//Rebuilds the whole, uncompressed content from its compressed copy so it can be read like any other content
+	public void decompressContents(@NonNull String name) throws IOException {
+		File stagingFile = createStagingFile();
+
+		try {
+			try (InputStream in = new InflaterInputStream(new BufferedInputStream(
+					Files.newInputStream(getCompressedLocationOnDisk(name).toPath()), 65536));
+				 FileOutputStream out = new FileOutputStream(stagingFile)) {
+
+				byte[] dataBuffer = new byte[65536];
+				int bytesRead;
+				while ((bytesRead = in.read(dataBuffer, 0, dataBuffer.length)) != -1) {
+					out.write(dataBuffer, 0, bytesRead);
+				}
+				out.getFD().sync();
+			}
+			commitStagingFile(stagingFile, name);
+		} finally {
+			Files.deleteIfExists(stagingFile.toPath());
+		}
+	}
+
+
+	//Streams the content, decompressing it on the fly if only the compressed copy is around
+	@NonNull
+	public InputStream openContentStream(@NonNull String name) throws IOException {
+		File whole = resolveContentLocation(name);
+		if(whole.exists())
+			return new BufferedInputStream(Files.newInputStream(whole.toPath()), 65536);
+
+		return new InflaterInputStream(new BufferedInputStream(
+				Files.newInputStream(getCompressedLocationOnDisk(name).toPath()), 65536));
+	}
+
+
+	//Checks for formats that are already compressed, then deflates a sample to see how well the rest might do
+	private boolean isWorthCompressing(@NonNull File source) throws IOException {
+		if(source.length() < minCompressSize)
+			return false;
+
+		byte[] sample = new byte[sampleSize];
+		int sampled = 0;
+		try (InputStream in = Files.newInputStream(source.toPath())) {
+			int read;
+			while(sampled < sample.length && (read = in.read(sample, sampled, sample.length - sampled)) != -1)
+				sampled += read;
+		}
+
+		if(isAlreadyCompressed(sample, sampled))
+			return false;
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(sample, 0, sampled);
+			deflater.finish();
+
+			byte[] out = new byte[sampleSize];
+			long compressed = 0;
+			while(!deflater.finished())
+				compressed += deflater.deflate(out);
+
+			return compressed < sampled * worthwhileRatio;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static boolean isAlreadyCompressed(@NonNull byte[] header, int length) {
+		if(length < 12) return false;
+
+		int b0 = header[0] & 0xFF, b1 = header[1] & 0xFF, b2 = header[2] & 0xFF, b3 = header[3] & 0xFF;
+
+		if(b0 == 0xFF && b1 == 0xD8 && b2 == 0xFF) return true;					//JPEG
+		if(b0 == 0x89 && b1 == 'P' && b2 == 'N' && b3 == 'G') return true;		//PNG
+		if(b0 == 'G' && b1 == 'I' && b2 == 'F') return true;						//GIF
+		if(b0 == 'R' && b1 == 'I' && b2 == 'F' && b3 == 'F') return true;		//WebP, AVI, WAV (close enough)
+		if(b0 == 'P' && b1 == 'K') return true;									//Zip, and everything built on it
+		if(b0 == 0x1F && b1 == 0x8B) return true;									//Gzip
+		if(b0 == 0x1A && b1 == 0x45 && b2 == 0xDF && b3 == 0xA3) return true;	//Matroska, WebM
+		if(b0 == 'I' && b1 == 'D' && b2 == '3') return true;						//MP3
+		if(b0 == 0xFF && (b1 & 0xE0) == 0xE0) return true;						//MP3/AAC frame sync
+		if(header[4] == 'f' && header[5] == 't' && header[6] == 'y' && header[7] == 'p') return true;	//MP4, MOV, HEIC
+
+		return false;
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+	// Packs
+	//---------------------------------------------------------------------------------------------
+
+	//Appends small content to a shared pack file rather than giving it a file of its own.
+	//Returns where the content ended up, which the caller needs to record to ever find it again.
+	@NonNull
+	public LPackEntry packContents(@NonNull String name, @NonNull byte[] contents) throws IOException {
+		return packs.append(name, contents);
+	}
+
+	@NonNull
+	public byte[] readPackedContents(@NonNull LPackEntry entry) throws IOException {
+		return packs.read(entry);
+	}
+
+	//Opens a pooled, read-only channel over packed content without copying it out of its pack
+	@NonNull
+	public ContentChannel openPackedContents(@NonNull LPackEntry entry) throws IOException {
+		return packs.open(entry);
+	}
+
+	//Packs no longer taking appends that haven't been written to since the given time (epoch millis), oldest first
+	@NonNull
+	public List<Integer> getSealedPacks(long writtenBeforeMillis) {
+		return packs.getSealedPacks(writtenBeforeMillis);
+	}
+
+	public long getPackSize(int packID) {
+		return packs.getPackSize(packID);
+	}
+
+	//Bytes all packs take up on disk, including space left behind by deleted content
+	public long getPackStorageSize() {
+		return packs.getTotalSize();
+	}
+
+	//Returns the number of bytes freed
+	public long deletePack(int packID) {
+		return packs.delete(packID);
+	}
+
+	//Copies packed content out into its own slot, for readers that need a file of its own (e.g. a Uri)
+	public void unpackContents(@NonNull LPackEntry entry) throws IOException {
+		byte[] contents = packs.read(entry);
+		File stagingFile = createStagingFile();
+
+		try {
+			try (FileOutputStream out = new FileOutputStream(stagingFile)) {
+				out.write(contents);
+				out.getFD().sync();
+			}
+			commitStagingFile(stagingFile, entry.name);
+		} finally {
+			Files.deleteIfExists(stagingFile.toPath());
+		}
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+	// Verification
+	//---------------------------------------------------------------------------------------------
+
+	//Re-hashes content from how it's actually stored: out of its pack, decompressed, or straight from its file.
+	//If packed or compressed content also has a whole copy lying around, that copy is checked too and dropped if it's bad.
+	//Returns false if the stored content no longer matches its checksum.
+	public boolean verifyContents(@NonNull String name, @NonNull String checksum, @Nullable LPackEntry packEntry,
+								  boolean compressed, @Nullable TokenBucket throttle) throws IOException {
+		if(packEntry == null && !compressed) {
+			//The whole copy is all there is, so it had better be there
+			if(!resolveContentLocation(name).exists())
+				return false;
+			return verifyWholeContents(name, checksum, throttle);
+		}
+
+		boolean intact;
+		try {
+			if(packEntry != null)
+				intact = checksum.equals(hashStream(new ByteArrayInputStream(packs.read(packEntry)), checksum, throttle));
+			else
+				intact = checksum.equals(hashStream(new InflaterInputStream(
+						Files.newInputStream(getCompressedLocationOnDisk(name).toPath())), checksum, throttle));
+		}
+		catch (NoSuchFileException | EOFException | ZipException e) {
+			//Missing, truncated, or garbled beyond decompressing
+			intact = false;
+		}
+
+		verifyWholeContents(name, checksum, throttle);
+		return intact;
+	}
+
+	//Checks the whole copy of the content, if there is one, dropping it if it's bad.
+	//Returns false only if a whole copy exists and is bad.
+	public boolean verifyWholeContents(@NonNull String name, @NonNull String checksum, @Nullable TokenBucket throttle) throws IOException {
+		File whole = resolveContentLocation(name);
+		if(!whole.exists())
+			return true;
+
+		try {
+			if(checksum.equals(hashStream(Files.newInputStream(whole.toPath()), checksum, throttle)))
+				return true;
+		} catch (NoSuchFileException e) {
+			return true;	//Dropped while we were reading it
+		}
+
+		dropWholeContents(name);
+		return false;
+	}
+
+	//Checks each chunk in the manifest, deleting any that are bad so a repair can write them fresh.
+	//Returns the hashes of the bad chunks.
+	@NonNull
+	public List<String> verifyChunks(@NonNull List<LContentChunk> manifest, @Nullable TokenBucket throttle) throws IOException {
+		List<String> badChunks = new ArrayList<>();
+		for(LContentChunk entry : manifest) {
+			File chunk = getChunkLocationOnDisk(entry.chunkhash);
+			if(chunk.exists() && entry.chunkhash.equals(hashStream(Files.newInputStream(chunk.toPath()), entry.chunkhash, throttle)))
+				continue;
+
+			badChunks.add(entry.chunkhash);
+			boolean del = chunk.delete();
+		}
+		return badChunks;
+	}
+
+
+	//Hashes the stream with whichever algorithm produced the expected checksum
+	@NonNull
+	private static String hashStream(@NonNull InputStream source, @NonNull String expected, @Nullable TokenBucket throttle) throws IOException {
+		try (InputStream in = source) {
+			ContentHasher hasher = HashAlgorithm.of(expected).newHasher();
+
+			byte[] dataBuffer = new byte[65536];
+			int bytesRead;
+			while ((bytesRead = in.read(dataBuffer, 0, dataBuffer.length)) != -1) {
+				if(throttle != null) throttle.acquire(bytesRead);
+				hasher.update(dataBuffer, 0, bytesRead);
+			}
+
+			return hasher.finish();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while verifying contents");
+		}
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+
+
+	//Returns the number of bytes freed. Packed content isn't counted, as it stays behind in its pack until Cleanup compacts it.
+	public long deleteContents(@NonNull String name) {
+		long freed = deleteAndMeasure(getContentLocationOnDisk(name));
+		if(!flatLayoutMigrated)
+			freed += deleteAndMeasure(getFlatLocationOnDisk(name));
+
+		dropWholeContents(name);
+		freed += deleteAndMeasure(getCompressedLocationOnDisk(name));
+		return freed;
+	}
+
+
+	//Staging files are removed as soon as their writer is finished with them, so any old ones were left by a crash.
+	//Returns the number of bytes freed.
+	public long purgeStagingFiles(long olderThanMillis) {
+		File[] staged = new File(getContentRoot(), stagingDir).listFiles();
+		if(staged == null) return 0;
+
+		long cutoff = System.currentTimeMillis() - olderThanMillis;
+		long freed = 0;
+		for(File file : staged) {
+			if(file.lastModified() < cutoff)
+				freed += deleteAndMeasure(file);
+		}
+		return freed;
+	}
+
+	private long deleteAndMeasure(@NonNull File file) {
+		long length = file.length();
+		return file.delete() ? length : 0;
 	}
 }
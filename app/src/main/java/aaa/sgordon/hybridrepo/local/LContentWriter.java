@@ -0,0 +1,115 @@
+package aaa.sgordon.hybridrepo.local;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import aaa.sgordon.hybridrepo.hashing.ContentHasher;
+import aaa.sgordon.hybridrepo.local.types.LContent;
+
+//Streams new content into a staging file in the content store, hashing it as it goes.
+//Nothing is visible in the store until commit(), which publishes the content under its hash.
+//Closing the writer without committing discards everything written.
+public class LContentWriter extends OutputStream implements WritableByteChannel {
+	private final LContentHelper helper;
+	private final File stagingFile;
+	private final FileChannel channel;
+	private final ContentHasher hasher;
+
+	private long size;
+	private boolean open;
+	private LContent committed;
+
+	LContentWriter(@NonNull LContentHelper helper, @NonNull File stagingFile, @NonNull ContentHasher hasher) throws IOException {
+		this.helper = helper;
+		this.stagingFile = stagingFile;
+		this.channel = FileChannel.open(stagingFile.toPath(), StandardOpenOption.WRITE);
+		this.hasher = hasher;
+
+		this.size = 0;
+		this.open = true;
+		this.committed = null;
+	}
+
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[]{ (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(@NonNull byte[] b, int off, int len) throws IOException {
+		write(ByteBuffer.wrap(b, off, len));
+	}
+
+	@Override
+	public int write(@NonNull ByteBuffer src) throws IOException {
+		if(!open) throw new ClosedChannelException();
+		//Refused before it's written, rather than after streaming gigabytes that can never be committed
+		LContentHelper.checkContentSize(size + src.remaining());
+
+		//Hash exactly what the channel wrote
+		ByteBuffer toDigest = src.duplicate();
+		int written = 0;
+		while(src.hasRemaining())
+			written += channel.write(src);
+
+		toDigest.limit(toDigest.position() + written);
+		hasher.update(toDigest);
+
+		size += written;
+		return written;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+
+	//Publishes the written content into the store under its hash, returning its properties.
+	//If the content already exists in the store, the existing copy is kept.
+	@NonNull
+	public LContent commit() throws IOException {
+		if(committed != null) return committed;
+		if(!open) throw new ClosedChannelException();
+
+		//Make sure the data is on disk before the staging file can be published
+		channel.force(false);
+		channel.close();
+		open = false;
+
+		try {
+			String fileHash = hasher.finish();
+			helper.commitStagingFile(stagingFile, fileHash);
+
+			committed = new LContent(fileHash, fileHash, LContentHelper.checkContentSize(size));
+			return committed;
+		} finally {
+			Files.deleteIfExists(stagingFile.toPath());
+		}
+	}
+
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	//Discards the content if it hasn't been committed
+	@Override
+	public void close() throws IOException {
+		if(!open) return;
+		open = false;
+
+		channel.close();
+		Files.deleteIfExists(stagingFile.toPath());
+	}
+}
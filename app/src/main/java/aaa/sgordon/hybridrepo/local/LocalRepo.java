@@ -8,40 +8,90 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.paging.PagingSource;
+import androidx.room.InvalidationTracker;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 import aaa.sgordon.hybridrepo.MyApplication;
-import aaa.sgordon.hybridrepo.Utilities;
+import aaa.sgordon.hybridrepo.TokenBucket;
+import aaa.sgordon.hybridrepo.hashing.Checksum;
+import aaa.sgordon.hybridrepo.hashing.HashAlgorithm;
 import aaa.sgordon.hybridrepo.hybrid.ContentsNotFoundException;
 import aaa.sgordon.hybridrepo.hybrid.database.HybridHelpDatabase;
 import aaa.sgordon.hybridrepo.hybrid.jobs.sync.Sync;
+import aaa.sgordon.hybridrepo.local.chunking.FastCDC;
+import aaa.sgordon.hybridrepo.local.database.KeysetIterator;
 import aaa.sgordon.hybridrepo.local.database.LocalDatabase;
 import aaa.sgordon.hybridrepo.local.types.LAccount;
+import aaa.sgordon.hybridrepo.local.types.LChunk;
 import aaa.sgordon.hybridrepo.local.types.LContent;
+import aaa.sgordon.hybridrepo.local.types.LContentChunk;
 import aaa.sgordon.hybridrepo.local.types.LFile;
 import aaa.sgordon.hybridrepo.local.types.LJournal;
+import aaa.sgordon.hybridrepo.local.types.LPackEntry;
 
 public class LocalRepo {
 	private static final String TAG = "Hyb.Local";
 
 	private static LocalRepo instance;
 	private final LocalDatabase database;
+	private final JournalWriter journalWriter;
+	private final FileCache fileCache;
 	private LContentHelper contentHelper;
 
 	private UUID currentAccount;
 	private final Map<UUID, ReentrantLock> locks;
 
+	//Content at or above this size is stored in chunks so near-duplicate files can share storage. -1 disables chunking.
+	private volatile long chunkThreshold = -1;
+	//Compressible content is stored deflated when enabled. Off by default.
+	private volatile boolean compressionEnabled = false;
+	//Content written as bytes below this size is appended into a shared pack file instead of getting its own. -1 disables packing.
+	private volatile int packThreshold = 16 * 1024;
+	//How stale content's createtime must be before reusing it bumps it, see reuseContents()
+	private static final long reuseTouchInterval = 60;
+	//How stale a file's accesstime must be before reading it bumps it, see markFileAccessed()
+	private static final long accessTouchInterval = 60;
+	//How stale a whole copy's wholecopytime must be before reading it bumps it, see markWholeCopyUsed()
+	private static final long wholeCopyTouchInterval = 60;
+	//Rows per query when streaming through files or the journal, see KeysetIterator
+	private static final int PAGE_SIZE = 500;
+	//Most journal entries to commit together, and how long to wait for more once a burst of them starts, see JournalWriter
+	private static final int JOURNAL_BATCH_SIZE = 256;
+	private static final long JOURNAL_WINDOW_MILLIS = 2;
+	//Most file props to keep in memory, see FileCache
+	private static final int FILE_CACHE_SIZE = 2000;
+	private final FastCDC chunker = new FastCDC(256 * 1024, 1024 * 1024, 4 * 1024 * 1024);
+
 	public static LocalRepo getInstance() {
 		if (instance == null)
 			throw new IllegalStateException("LocalRepo is not initialized. Call initialize() first.");
@@ -58,9 +108,19 @@ public class LocalRepo {
 		if (instance == null) instance = new LocalRepo(database, storageDir);
 	}
 	private LocalRepo(LocalDatabase database, String storageDir) {
-		locks = new HashMap<>();
+		locks = new ConcurrentHashMap<>();
 		this.database = database;
 		this.contentHelper = new LContentHelper(storageDir);
+		this.journalWriter = new JournalWriter(database, JOURNAL_BATCH_SIZE, JOURNAL_WINDOW_MILLIS);
+
+		//Room can't say which rows a change touched, or whether it was one of ours, so the cached rows are checked
+		this.fileCache = new FileCache(FILE_CACHE_SIZE);
+		database.getInvalidationTracker().addObserver(new InvalidationTracker.Observer("file") {
+			@Override
+			public void onInvalidated(@NonNull Set<String> tables) {
+				revalidateFileCache();
+			}
+		});
 	}
 
 
@@ -78,17 +138,36 @@ public class LocalRepo {
 	}
 
 
-	public void lock(@NonNull UUID fileUID) {
-		if(!locks.containsKey(fileUID))
-			locks.put(fileUID, new ReentrantLock());
+	//The algorithm new content is named by. Existing content keeps whatever name it was written under.
+	@NonNull
+	public HashAlgorithm getHashAlgorithm() {
+		return contentHelper.getHashAlgorithm();
+	}
+	public void setHashAlgorithm(@NonNull HashAlgorithm hashAlgorithm) {
+		contentHelper.setHashAlgorithm(hashAlgorithm);
+	}
+
 
-		locks.get(fileUID).lock();
+	public void lock(@NonNull UUID fileUID) {
+		locks.computeIfAbsent(fileUID, k -> new ReentrantLock()).lock();
 	}
 	public void unlock(@NonNull UUID fileUID) {
-		if(!locks.containsKey(fileUID))
+		ReentrantLock lock = locks.get(fileUID);
+		if(lock == null)
 			return;
 
-		locks.get(fileUID).unlock();
+		lock.unlock();
+	}
+
+	//Locks every file, always in UUID order, so two threads locking overlapping batches can never each be holding a
+	// lock the other is waiting on. Duplicates are only locked once.
+	public void lock(@NonNull Collection<UUID> fileUIDs) {
+		for(UUID fileUID : new TreeSet<>(fileUIDs))
+			lock(fileUID);
+	}
+	public void unlock(@NonNull Collection<UUID> fileUIDs) {
+		for(UUID fileUID : new TreeSet<>(fileUIDs))
+			unlock(fileUID);
 	}
 	public void ensureLockHeld(@NonNull UUID fileUID) {
 		ReentrantLock lock = locks.get(fileUID);
@@ -127,8 +206,13 @@ public class LocalRepo {
 		Log.v(TAG, String.format("LOCAL GET FILE PROPS called with fileUID='%s'", fileUID));
 		if(isOnMainThread()) throw new NetworkOnMainThreadException();
 
-		LFile file = database.getFileDao().get(fileUID);
+		LFile file = fileCache.get(fileUID);
+		if(file != null) return file;
+
+		long generation = fileCache.generation();
+		file = database.getFileDao().get(fileUID);
 		if(file == null) throw new FileNotFoundException("File not found! ID: '"+fileUID+"'");
+		fileCache.fill(file, generation);
 		return file;
 	}
 	public boolean doesFileExist(@NonNull UUID fileUID) {
@@ -140,8 +224,73 @@ public class LocalRepo {
 		}
 	}
 
+	//Grabs many files at once, e.g. a screen of thumbnails. Returned in the order asked for, and files that don't
+	// exist are left out.
+	@NonNull
+	public Map<UUID, LFile> getFileProps(@NonNull Collection<UUID> fileUIDs) {
+		Log.v(TAG, String.format("LOCAL GET FILE PROPS BATCH called with fileCount='%s'", fileUIDs.size()));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		Map<UUID, LFile> found = new HashMap<>();
+		List<UUID> misses = new ArrayList<>();
+		for(UUID fileUID : new LinkedHashSet<>(fileUIDs)) {
+			LFile file = fileCache.get(fileUID);
+			if(file != null)
+				found.put(fileUID, file);
+			else
+				misses.add(fileUID);
+		}
+
+		long generation = fileCache.generation();
+		for(LFile file : getFilesFromDatabase(misses)) {
+			found.put(file.fileuid, file);
+			fileCache.fill(file, generation);
+		}
+
+		Map<UUID, LFile> files = new LinkedHashMap<>();
+		for(UUID fileUID : fileUIDs) {
+			LFile file = found.get(fileUID);
+			if(file != null) files.put(fileUID, file);
+		}
+		return files;
+	}
+
+	//Straight from the database, a page of fileUIDs per query to stay under SQLite's limit on bound arguments
+	@NonNull
+	//Runs on Room's invalidation thread. Reads every cached row again rather than dropping them all, as most changes
+	// are our own writes the cache already has.
+	private void revalidateFileCache() {
+		long generation = fileCache.startRevalidation();
+		List<UUID> cached = fileCache.cachedFiles();
+		try {
+			Map<UUID, LFile> current = new HashMap<>();
+			for(LFile file : getFilesFromDatabase(cached))
+				current.put(file.fileuid, file);
+			fileCache.revalidate(cached, current, generation);
+		} catch (RuntimeException e) {
+			//No telling what changed
+			Log.w(TAG, "Couldn't check cached files against the database, clearing the cache", e);
+			fileCache.invalidateAll();
+		}
+	}
+
+	private List<LFile> getFilesFromDatabase(@NonNull List<UUID> fileUIDs) {
+		List<LFile> files = new ArrayList<>();
+		for(int i = 0; i < fileUIDs.size(); i += PAGE_SIZE) {
+			List<UUID> page = fileUIDs.subList(i, Math.min(i + PAGE_SIZE, fileUIDs.size()));
+			files.addAll(database.getFileDao().get(page.toArray(new UUID[0])));
+		}
+		return files;
+	}
+
 
 	public LFile putFileProps(@NonNull LFile fileProps, @NonNull String prevChecksum, @NonNull String prevAttrHash) throws IllegalStateException {
+		return putFileProps(fileProps, null, prevChecksum, prevAttrHash);
+	}
+
+	//Pass the checksum of fileProps.userattr if the caller already has it, so the attributes aren't hashed twice
+	public LFile putFileProps(@NonNull LFile fileProps, @Nullable Checksum attrHash, @NonNull String prevChecksum,
+							  @NonNull String prevAttrHash) throws IllegalStateException {
 		Log.i(TAG, String.format("LOCAL PUT FILE PROPS called with fileUID='%s'", fileProps.fileuid));
 		if(isOnMainThread()) throw new NetworkOnMainThreadException();
 		ensureLockHeld(fileProps.fileuid);
@@ -168,15 +317,110 @@ public class LocalRepo {
 		}
 
 
-		//Hash the user attributes in the updated props
-		fileProps.attrhash = Utilities.computeChecksum(fileProps.userattr.toString().getBytes());
+		//Hash the user attributes in the updated props, unless they're exactly what the caller already hashed
+		if(attrHash == null || !attrHash.isOf(fileProps.userattr))
+			attrHash = Checksum.ofAttributes(fileProps.userattr);
+		fileProps.attrhash = attrHash.value;
 
 		//Create/update the file
 		database.getFileDao().put(fileProps);
+		fileCache.put(fileProps);
 
 		return fileProps;
 	}
 
+	//Puts every file and a journal entry for each, built by journal from the updated props, in one transaction.
+	//All or nothing: files that already exist must still be at the checksum and attrhash given for them in
+	// prevChecksums and prevAttrHashes, and files missing from those maps must not exist yet.
+	//The locks for every file must be held.
+	@NonNull
+	public List<LFile> putFileProps(@NonNull List<LFile> files, @NonNull Map<UUID, String> prevChecksums,
+									@NonNull Map<UUID, String> prevAttrHashes, @NonNull Function<LFile, LJournal> journal) throws IllegalStateException {
+		Log.i(TAG, String.format("LOCAL PUT FILE PROPS BATCH called with fileCount='%s'", files.size()));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		List<UUID> fileUIDs = new ArrayList<>();
+		for(LFile file : files) {
+			ensureLockHeld(file.fileuid);
+			fileUIDs.add(file.fileuid);
+		}
+
+		//Hashing doesn't need to hold up anyone else's writes, so it's done before the transaction
+		for(LFile file : files)
+			file.attrhash = Checksum.ofAttributes(file.userattr).value;
+
+		database.runInTransaction(() -> {
+			//Make sure the hashes match for every file that already exists
+			for(LFile oldFile : getFilesFromDatabase(fileUIDs)) {
+				if(!Objects.equals(oldFile.checksum, prevChecksums.get(oldFile.fileuid)))
+					throw new IllegalStateException(String.format("Cannot put props, file contents hash doesn't match for fileUID='%s'", oldFile.fileuid));
+
+				if(!Objects.equals(oldFile.attrhash, prevAttrHashes.get(oldFile.fileuid)))
+					throw new IllegalStateException(String.format("Cannot put props, file attributes hash doesn't match for fileUID='%s'", oldFile.fileuid));
+			}
+
+			LJournal[] entries = new LJournal[files.size()];
+			for(int i = 0; i < entries.length; i++)
+				entries[i] = journal.apply(files.get(i));
+
+			database.getFileDao().put(files.toArray(new LFile[0]));
+			database.getJournalDao().insert(entries);
+		});
+
+		for(LFile file : files)
+			fileCache.put(file);
+		return files;
+	}
+
+
+	//Records that the file's contents were just read. Only touches the database every so often.
+	//No journal entry is added, as access times aren't synced.
+	public void markFileAccessed(@NonNull LFile fileProps) {
+		long now = Instant.now().getEpochSecond();
+		if(fileProps.accesstime != null && now - fileProps.accesstime < accessTouchInterval)
+			return;
+
+		database.getFileDao().setAccessTime(fileProps.fileuid, now);
+		fileCache.setAccessTime(fileProps.fileuid, now);
+		fileProps.accesstime = now;
+	}
+
+	//Lists the account's files a page at a time, in fileuid order. Pass the fileuid of the last file from the previous
+	// page to continue (null for the first page). A page shorter than limit is the last one.
+	@NonNull
+	public List<LFile> listFiles(@NonNull UUID accountUID, @Nullable UUID afterFileUID, int limit) {
+		Log.v(TAG, String.format("LOCAL LIST FILES called with accountUID='%s', after='%s'", accountUID, afterFileUID));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		if(afterFileUID == null)
+			return database.getFileDao().getByAccountPage(accountUID, limit);
+		return database.getFileDao().getByAccountPage(accountUID, afterFileUID, limit);
+	}
+
+	//Every file in the account, fetched a page at a time as the iterator is walked. Must be walked off the main thread.
+	@NonNull
+	public Iterator<LFile> iterateFiles(@NonNull UUID accountUID) {
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		return new KeysetIterator<>((last, limit) -> listFiles(accountUID, last == null ? null : last.fileuid, limit), PAGE_SIZE);
+	}
+
+	//For UI lists. Paging loads on its own threads, so this one is fine to grab from anywhere.
+	@NonNull
+	public PagingSource<Integer, LFile> getFilePagingSource(@NonNull UUID accountUID) {
+		return database.getFileDao().pageByAccount(accountUID);
+	}
+
+
+	//Pages through files, least recently used first. Pass the last file from the previous page to continue.
+	@NonNull
+	public List<LFile> getLeastRecentlyUsedFiles(@Nullable LFile after, int limit) {
+		if(after == null)
+			return database.getFileDao().getLeastRecentlyUsed(limit);
+
+		return database.getFileDao().getLeastRecentlyUsed(after.getLastused(), after.fileuid, limit);
+	}
+
 
 	//This is supposed to throw FileNotFound. We do NOT want another journal entry added
 	// if the file doesn't exist, as that might mess up the next sync. Also it gives more info.
@@ -192,6 +436,48 @@ public class LocalRepo {
 
 		//Remove the file
 		database.getFileDao().delete(fileUID);
+		fileCache.remove(fileUID);
+	}
+
+	//Deletes every file in one transaction, along with a journal entry for each, built by journal.
+	//Files that don't exist are skipped and get no journal entry, for the same reason deleteFileProps() throws.
+	//Returns the files that were actually deleted. The locks for every file must be held.
+	@NonNull
+	public List<UUID> deleteFileProps(@NonNull Collection<UUID> fileUIDs, @NonNull Function<UUID, LJournal> journal) {
+		Log.i(TAG, String.format("LOCAL DELETE FILE PROPS BATCH called with fileCount='%s'", fileUIDs.size()));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+		for(UUID fileUID : fileUIDs)
+			ensureLockHeld(fileUID);
+
+		List<UUID> deleted = database.runInTransaction(() -> {
+			List<UUID> existing = new ArrayList<>();
+			for(LFile file : getFilesFromDatabase(new ArrayList<>(new LinkedHashSet<>(fileUIDs))))
+				existing.add(file.fileuid);
+			if(existing.isEmpty())
+				return existing;
+
+			LJournal[] entries = new LJournal[existing.size()];
+			for(int i = 0; i < entries.length; i++)
+				entries[i] = journal.apply(existing.get(i));
+
+			for(int i = 0; i < existing.size(); i += PAGE_SIZE) {
+				List<UUID> page = existing.subList(i, Math.min(i + PAGE_SIZE, existing.size()));
+				database.getFileDao().delete(page.toArray(new UUID[0]));
+			}
+			database.getJournalDao().insert(entries);
+			return existing;
+		});
+
+		for(UUID fileUID : deleted)
+			fileCache.remove(fileUID);
+		return deleted;
+	}
+
+
+	//How well the file props cache is doing, e.g. for logging or a debug screen
+	@NonNull
+	public FileCache.Stats getFileCacheStats() {
+		return fileCache.getStats();
 	}
 
 
@@ -199,6 +485,30 @@ public class LocalRepo {
 	// Contents
 	//---------------------------------------------------------------------------------------------
 
+	//When enabled, compressible content (text, JSON, etc) written from then on is stored compressed, and decompressed
+	// transparently on read. Content that's already stored keeps the codec it was written with.
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	public void setPackThreshold(int packThreshold) {
+		this.packThreshold = packThreshold;
+	}
+	public int getPackThreshold() {
+		return packThreshold;
+	}
+
+	public void setChunkThreshold(long chunkThreshold) {
+		this.chunkThreshold = chunkThreshold;
+	}
+	public long getChunkThreshold() {
+		return chunkThreshold;
+	}
+
+
 	//TODO Check with Cleanup to decide if we should show content or if it's delete marked
 	public LContent getContentProps(@NonNull String name) throws ContentsNotFoundException {
 		Log.v(TAG, String.format("\nLOCAL GET CONTENT PROPS called with name='%s'", name));
@@ -214,10 +524,81 @@ public class LocalRepo {
 		if(isOnMainThread()) throw new NetworkOnMainThreadException();
 
 		//Throws a ContentsNotFound exception if the content properties don't exist
-		getContentProps(name);
+		LContent props = getContentProps(name);
 
 		//Now that we know the properties exist, return the content uri
-		return contentHelper.getContentUri(name);
+		try {
+			ensureWholeContents(props);
+			return contentHelper.getContentUri(name);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	//Streams the content, decompressing it on the fly when needed. Unlike getContentUri, this never writes
+	// a decompressed copy to disk. Chunked content is still reassembled first.
+	@NonNull
+	public InputStream openContentStream(@NonNull String name) throws ContentsNotFoundException {
+		Log.v(TAG, String.format("\nLOCAL OPEN CONTENT STREAM called with name='"+name+"'"));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		//Throws a ContentsNotFound exception if the content properties don't exist
+		LContent props = getContentProps(name);
+
+		try {
+			if(props.packed)
+				return new ByteArrayInputStream(contentHelper.readPackedContents(getPackEntry(name)));
+
+			if(props.chunked)
+				ensureWholeContents(props);
+			return contentHelper.openContentStream(name);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	//Returns the chunks making up the content, in order. Empty if the content isn't chunked.
+	@NonNull
+	public List<LContentChunk> getContentManifest(@NonNull String name) {
+		return database.getChunkDao().getManifest(name);
+	}
+
+
+	//Returns a seekable, read-only channel over the content. The channel is pooled, so close it when done.
+	@NonNull
+	public ContentChannel openContentChannel(@NonNull String name) throws ContentsNotFoundException {
+		Log.v(TAG, String.format("\nLOCAL OPEN CONTENT CHANNEL called with name='"+name+"'"));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		//Throws a ContentsNotFound exception if the content properties don't exist
+		LContent props = getContentProps(name);
+
+		try {
+			//Packed content is read straight out of its pack, so it never needs a copy of its own here
+			if(props.packed)
+				return contentHelper.openPackedContents(getPackEntry(name));
+
+			ensureWholeContents(props);
+			return contentHelper.openContents(name);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	//Maps a range of the content into memory, read-only. The range is clamped to the end of the content.
+	@NonNull
+	public MappedByteBuffer readContentRange(@NonNull String name, long offset, long length) throws ContentsNotFoundException {
+		Log.v(TAG, String.format("\nLOCAL READ CONTENT RANGE called with name='%s', offset='%s', length='%s'", name, offset, length));
+
+		//The mapping stays valid after the channel is handed back
+		try (ContentChannel channel = openContentChannel(name)) {
+			return channel.map(offset, length);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 
@@ -227,48 +608,567 @@ public class LocalRepo {
 
 		try {
 			//Just grab the properties if the content already exists
-			return getContentProps(name);
+			return reuseContents(name);
 		} catch (ContentsNotFoundException e) {
 			//If the content doesn't already exist, write it
-			try {
-				LContent newContents = contentHelper.writeContents(name, contents);
-				database.getContentDao().put(newContents);
-				return newContents;
-			} catch (IOException ex) {
-				throw new RuntimeException(ex);
-			}
+			return recordContents(stageNewContents(name, Checksum.of(HashAlgorithm.of(name), contents), contents));
 		}
 	}
 
+	//For contents the caller has already hashed, so they're never hashed twice. The content is named by its checksum.
+	public LContent writeContents(@NonNull Checksum checksum, @NonNull byte[] contents) {
+		return recordContents(stageContents(checksum, contents));
+	}
+
 	public LContent writeContents(@NonNull String name, @NonNull Uri source) {
-		Log.v(TAG, String.format("\nLOCAL WRITE CONTENTS URI called with name='"+name+"'"));
+		return recordContents(stageContents(name, source));
+	}
+
+
+	//The stageContents() methods write content to disk like writeContents(), but leave the database alone.
+	//Pass the result to commitContentChange() to record it in the same transaction as the file that uses it.
+
+	@NonNull
+	public StagedContents stageContents(@NonNull Checksum checksum, @NonNull byte[] contents) {
+		Log.v(TAG, String.format("\nLOCAL STAGE CONTENTS BYTE called with checksum='"+checksum+"'"));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+		if(!checksum.isOf(contents)) throw new IllegalArgumentException("Checksum was not computed from these contents!");
+
+		try {
+			//Just grab the properties if the content already exists
+			return new StagedContents(reuseContents(checksum.value));
+		} catch (ContentsNotFoundException e) {
+			//If the content doesn't already exist, write it
+			return stageNewContents(checksum.value, checksum, contents);
+		}
+	}
+
+	@NonNull
+	public StagedContents stageContents(@NonNull String name, @NonNull Uri source) {
+		Log.v(TAG, String.format("\nLOCAL STAGE CONTENTS URI called with name='"+name+"'"));
 		if(isOnMainThread()) throw new NetworkOnMainThreadException();
 
 		try {
 			//Just grab the properties if the content already exists
-			return getContentProps(name);
+			return new StagedContents(reuseContents(name));
 		} catch (ContentsNotFoundException e) {
 			//If the content doesn't already exist, write it
 			try {
 				LContent newContents = contentHelper.writeContents(name, source);
-				database.getContentDao().put(newContents);
-				return newContents;
+				return stageNewContents(newContents);
 			} catch (IOException ex) {
 				throw new RuntimeException(ex);
 			}
 		}
 	}
 
+	//Publishes the writer's content into the store
+	@NonNull
+	public StagedContents stageContents(@NonNull LContentWriter writer) {
+		Log.v(TAG, "\nLOCAL STAGE CONTENTS WRITER called");
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		try {
+			LContent newContents = writer.commit();
+
+			try {
+				//If the content already existed, keep the existing properties
+				return new StagedContents(reuseWrittenContents(newContents.name));
+			} catch (ContentsNotFoundException e) {
+				return stageNewContents(newContents);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	private StagedContents stageNewContents(@NonNull String name, @NonNull Checksum checksum, @NonNull byte[] contents) {
+		try {
+			if(packThreshold >= 0 && contents.length < packThreshold)
+				return stagePackedContents(name, checksum, contents);
+
+			LContent newContents = contentHelper.writeContents(name, checksum, contents);
+			return stageNewContents(newContents);
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	//Records staged content on its own, for when there's no file to commit it with
+	private LContent recordContents(@NonNull StagedContents staged) {
+		database.runInTransaction(staged::record);
+		staged.finish();
+		return staged.props;
+	}
+
+
+	//Opens a writer that streams new content into the content store. Pass it to commitContents() when done.
+	@NonNull
+	public LContentWriter openContentWriter() {
+		Log.v(TAG, "\nLOCAL OPEN CONTENT WRITER called");
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		try {
+			return contentHelper.openContentWriter();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	//Publishes the writer's content into the store, returning the properties of the stored content
+	public LContent commitContents(@NonNull LContentWriter writer) {
+		Log.v(TAG, "\nLOCAL COMMIT CONTENTS called");
+		return recordContents(stageContents(writer));
+	}
+
+
+	//Imports the source into the content store in a single pass.
+	//Returns the properties of the stored content, which is named by its checksum.
+	public LContent importContents(@NonNull Uri source) {
+		Log.v(TAG, String.format("\nLOCAL IMPORT CONTENTS called with source='"+source+"'"));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		try {
+			LContent newContents = contentHelper.importContents(source);
+
+			try {
+				//If the content already existed, keep the existing properties
+				return reuseWrittenContents(newContents.name);
+			} catch (ContentsNotFoundException e) {
+				return recordContents(stageNewContents(newContents));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	//Points the file at staged contents, all in one transaction: the content's rows if it's new, the file row, and
+	// the file's journal entry, which journal builds from the updated props. The file is read once, inside the
+	// transaction, and must still be at prevChecksum. Returns the updated props.
+	//The lock for this file must be held.
+	@NonNull
+	public LFile commitContentChange(@NonNull UUID fileUID, @NonNull String prevChecksum, @NonNull StagedContents contents,
+									 @NonNull Function<LFile, LJournal> journal) throws FileNotFoundException {
+		Log.i(TAG, String.format("LOCAL COMMIT CONTENT CHANGE called with fileUID='%s'", fileUID));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+		ensureLockHeld(fileUID);
+
+		LFile props;
+		try {
+			props = database.runInTransaction(() -> {
+				LFile file = database.getFileDao().get(fileUID);
+				if(file == null)
+					return null;
+				if(!Objects.equals(file.checksum, prevChecksum))
+					throw new IllegalStateException(String.format("Cannot write, checksums don't match! FileUID='%s'", fileUID));
+
+				contents.record();
+
+				long now = Instant.now().getEpochSecond();
+				file.checksum = contents.props.checksum;
+				file.filesize = contents.props.size;
+				file.changetime = now;
+				file.modifytime = now;
+				database.getFileDao().put(file);
+				database.getJournalDao().insert(journal.apply(file));
+				return file;
+			});
+		} catch (RuntimeException e) {
+			//Still record the content so Cleanup knows it's there to sweep, rather than leaving it on disk forever
+			try {
+				recordContents(contents);
+			} catch (RuntimeException recordError) {
+				e.addSuppressed(recordError);
+			}
+			throw e;
+		}
+
+		if(props == null) {
+			recordContents(contents);
+			throw new FileNotFoundException("File not found! ID: '"+fileUID+"'");
+		}
+
+		fileCache.put(props);
+		contents.finish();
+		return props;
+	}
+
+
+	//Content written to disk gets chunked first if it's large enough, or compressed if that pays off
+	private StagedContents stageNewContents(@NonNull LContent newContents) {
+		if(chunkThreshold < 0 || newContents.size < chunkThreshold)
+			return stageMaybeCompressed(newContents);
+
+		try {
+			List<LContentChunk> manifest = contentHelper.chunkContents(newContents.name, chunker);
+
+			LChunk[] chunks = new LChunk[manifest.size()];
+			for(int i = 0; i < manifest.size(); i++)
+				chunks[i] = new LChunk(manifest.get(i).chunkhash, manifest.get(i).size);
+
+			newContents.chunked = true;
+			return new StagedContents(newContents, () -> {
+				database.getChunkDao().put(chunks);
+				database.getChunkDao().putManifest(manifest.toArray(new LContentChunk[0]));
+				database.getContentDao().put(newContents);
+			}, () -> {
+				//If a concurrent delete snuck in and took some of our chunks, hang on to the whole copy
+				if(contentHelper.hasAllChunks(manifest))
+					contentHelper.dropWholeContents(newContents.name);
+				else
+					Log.w(TAG, "Chunks went missing while chunking, keeping whole contents for name='"+newContents.name+"'");
+			});
+		} catch (IOException e) {
+			//Chunking is just an optimization, the whole content is still there
+			Log.w(TAG, "Could not chunk contents, storing whole. Name='"+newContents.name+"'", e);
+			newContents.chunked = false;
+			return new StagedContents(newContents, () -> database.getContentDao().put(newContents), () -> {});
+		}
+	}
+
+	//Returns the properties of content that already exists, marking it as freshly written so Cleanup doesn't
+	// sweep it out from under whoever is about to point a file at it
+	private LContent reuseContents(@NonNull String name) throws ContentsNotFoundException {
+		LContent props = getContentProps(name);
+
+		//Content that was written recently is already safe, no need for a database write
+		long now = Instant.now().getEpochSecond();
+		if(props.createtime != null && now - props.createtime < reuseTouchInterval)
+			return props;
+
+		//If Cleanup got to it first, the caller will just have to write it again
+		if(database.getContentDao().touch(name, now) == 0)
+			throw new ContentsNotFoundException(name);
+
+		props.createtime = now;
+		return props;
+	}
+
+
+	//Small content skips the content directory entirely and is appended to a pack
+	private StagedContents stagePackedContents(@NonNull String name, @NonNull Checksum checksum, @NonNull byte[] contents) throws IOException {
+		LPackEntry entry = contentHelper.packContents(name, contents);
+
+		LContent newContents = new LContent(name, checksum.value, contents.length);
+		newContents.packed = true;
+		return new StagedContents(newContents, () -> {
+			database.getPackDao().put(entry);
+			database.getContentDao().put(newContents);
+		}, () -> {});
+	}
+
+	@NonNull
+	private LPackEntry getPackEntry(@NonNull String name) throws ContentsNotFoundException {
+		LPackEntry entry = database.getPackDao().get(name);
+		if(entry == null) throw new ContentsNotFoundException(name);
+		return entry;
+	}
+
+	private StagedContents stageMaybeCompressed(@NonNull LContent newContents) {
+		if(!compressionEnabled)
+			return new StagedContents(newContents, () -> database.getContentDao().put(newContents), () -> {});
+
+		try {
+			long storedSize = contentHelper.compressContents(newContents.name);
+			if(storedSize >= 0) {
+				newContents.codec = LContent.CODEC_DEFLATE;
+				newContents.storedsize = (int) storedSize;
+			}
+
+			//Only drop the raw copy once the database knows to look for the compressed one
+			return new StagedContents(newContents, () -> database.getContentDao().put(newContents), () -> {
+				if(storedSize >= 0)
+					contentHelper.dropWholeContents(newContents.name);
+			});
+		} catch (IOException e) {
+			//Compression is just an optimization, the raw content is still there
+			Log.w(TAG, "Could not compress contents, storing raw. Name='"+newContents.name+"'", e);
+			newContents.codec = LContent.CODEC_NONE;
+			newContents.storedsize = newContents.size;
+			return new StagedContents(newContents, () -> database.getContentDao().put(newContents), () -> {});
+		}
+	}
+
+	//Chunked, packed, or compressed content gets rebuilt on demand so it can be read like any other content.
+	//The whole copy is only a cache. It stays around while it's being read, and Cleanup drops it once it's sat unused.
+	private void ensureWholeContents(@NonNull LContent props) throws IOException {
+		if(isStoredWhole(props))
+			return;
+
+		if(!contentHelper.hasWholeContents(props.name)) {
+			if(props.chunked)
+				contentHelper.assembleContents(props.name, database.getChunkDao().getManifest(props.name));
+			else if(props.packed)
+				contentHelper.unpackContents(getPackEntry(props.name));
+			else
+				contentHelper.decompressContents(props.name);
+		}
+		markWholeCopyUsed(props);
+	}
+
+	//Whether the whole copy is the content itself, rather than something rebuilt from its chunks, pack, or compressed copy
+	private static boolean isStoredWhole(@NonNull LContent props) {
+		return !props.chunked && !props.packed && props.codec.equals(LContent.CODEC_NONE);
+	}
+
+	//Keeps Cleanup away from a whole copy that's in use. Only touches the database every so often.
+	private void markWholeCopyUsed(@NonNull LContent props) {
+		long now = Instant.now().getEpochSecond();
+		if(props.wholecopytime != null && now - props.wholecopytime < wholeCopyTouchInterval)
+			return;
+
+		database.getContentDao().setWholeCopyTime(props.name, now);
+		props.wholecopytime = now;
+	}
+
+	//Reuses existing content after a writer or import already put a whole copy of it on disk. If the existing content
+	// is chunked, packed, or compressed, that copy is a leftover, and is handed to Cleanup like any other whole copy.
+	private LContent reuseWrittenContents(@NonNull String name) throws ContentsNotFoundException {
+		LContent props = reuseContents(name);
+		if(!isStoredWhole(props))
+			markWholeCopyUsed(props);
+		return props;
+	}
+
 
 	public void deleteContents(@NonNull String name) {
 		Log.i(TAG, String.format("\nLOCAL DELETE CONTENTS called with name='"+name+"'"));
 		if(isOnMainThread()) throw new NetworkOnMainThreadException();
 
-		//Remove the database entry first to avoid race conditions
-		database.getContentDao().delete(name);
+		//Remove the database entries first to avoid race conditions, along with any chunks only this content used
+		List<String> orphanedChunks = database.runInTransaction(() -> deleteContentRows(name));
 
 		//Now remove the content itself from disk
 		contentHelper.deleteContents(name);
+		contentHelper.deleteChunks(orphanedChunks);
+	}
+
+
+	//Deletes the content, but only if it's still unused once we're inside the transaction: it must not have been
+	// written since writtenBefore (epoch seconds), and no file outside of ignoredFiles may point to it.
+	//Returns the number of bytes freed on disk, or -1 if the content was kept.
+	public long deleteContentsIfUnused(@NonNull String name, long writtenBefore, @NonNull Collection<UUID> ignoredFiles) {
+		Log.v(TAG, String.format("\nLOCAL DELETE CONTENTS IF UNUSED called with name='"+name+"'"));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		List<String> orphanedChunks = database.runInTransaction(() -> {
+			LContent props = database.getContentDao().get(name);
+			if(props == null || props.createtime == null || props.createtime >= writtenBefore)
+				return null;
+
+			for(LFile file : database.getFileDao().getByChecksum(name)) {
+				if(!ignoredFiles.contains(file.fileuid))
+					return null;
+			}
+
+			return deleteContentRows(name);
+		});
+		if(orphanedChunks == null)
+			return -1;
+
+		return contentHelper.deleteContents(name) + contentHelper.deleteChunks(orphanedChunks);
+	}
+
+	//Content whose whole copy hasn't been used since the given time (epoch seconds), least recently used first
+	@NonNull
+	public List<LContent> getIdleWholeCopies(long usedBefore, int limit) {
+		return database.getContentDao().getIdleWholeCopies(usedBefore, limit);
+	}
+
+	//Drops the whole copy of chunked, packed, or compressed content, which gets rebuilt the next time it's read.
+	//Returns the number of bytes freed, or -1 if the copy was used since the props were read and was kept.
+	public long dropWholeCopy(@NonNull LContent props) {
+		Log.v(TAG, String.format("\nLOCAL DROP WHOLE COPY called with name='"+props.name+"'"));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		//Claim the copy before touching the disk. Anyone who read it since we looked has bumped the time.
+		if(props.wholecopytime == null || database.getContentDao().clearWholeCopyTime(props.name, props.wholecopytime) == 0)
+			return -1;
+
+		//For anything else the whole copy is all there is, and the time shouldn't have been set
+		if(isStoredWhole(props))
+			return 0;
+		return contentHelper.dropWholeContents(props.name);
+	}
+
+
+	//Must be run inside a transaction. Returns the chunks no other content uses anymore, which are now safe to delete.
+	private List<String> deleteContentRows(@NonNull String name) {
+		List<String> chunkHashes = new ArrayList<>();
+		for(LContentChunk entry : database.getChunkDao().getManifest(name))
+			chunkHashes.add(entry.chunkhash);
+
+		database.getContentDao().delete(name);
+		database.getPackDao().delete(name);
+		if(chunkHashes.isEmpty())
+			return chunkHashes;
+
+		database.getChunkDao().deleteManifest(name);
+		List<String> unreferenced = database.getChunkDao().getUnreferenced(chunkHashes.toArray(new String[0]));
+		database.getChunkDao().delete(unreferenced.toArray(new String[0]));
+		return unreferenced;
+	}
+
+
+	@NonNull
+	public List<LContent> getContentProps(@NonNull List<String> names) {
+		return database.getContentDao().get(names.toArray(new String[0]));
+	}
+
+	//Bytes the content store currently takes up on disk, including space left behind in packs by deleted content.
+	//Live packed content is already counted through its stored size, so only the dead space in packs is added here.
+	public long getContentStorageUsed() {
+		long deadPackBytes = Math.max(0, contentHelper.getPackStorageSize() - database.getPackDao().getLiveBytes());
+		return database.getContentDao().getStoredSize() + deadPackBytes;
+	}
+
+	//Pages through all content properties in name order. Pass the last name from the previous page to continue.
+	@NonNull
+	public List<LContent> getContentPropsAfter(@Nullable String afterName, int limit) {
+		return database.getContentDao().getAfter(afterName == null ? "" : afterName, limit);
+	}
+
+	//Returns every file pointing to any of the given contents
+	@NonNull
+	public List<LFile> getFilesUsingContents(@NonNull List<String> names) {
+		return database.getFileDao().getByChecksum(names.toArray(new String[0]));
+	}
+
+
+	//Removes staging files abandoned by crashed writers. Returns the number of bytes freed.
+	public long purgeStagingFiles(long olderThanMillis) {
+		Log.v(TAG, String.format("LOCAL PURGE STAGING FILES called with olderThanMillis='%s'", olderThanMillis));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		return contentHelper.purgeStagingFiles(olderThanMillis);
+	}
+
+
+	//Packs that no longer take appends and haven't been written to since the given time (epoch seconds), oldest first.
+	//Anything appended more recently may belong to a write that hasn't recorded its pack entry yet.
+	@NonNull
+	public List<Integer> getSealedPacks(long writtenBefore) {
+		return contentHelper.getSealedPacks(writtenBefore * 1000);
+	}
+
+	public long getPackSize(int packID) {
+		return contentHelper.getPackSize(packID);
+	}
+
+	//Bytes of the pack that still belong to content
+	public long getPackLiveBytes(int packID) {
+		return database.getPackDao().getLiveBytes(packID);
+	}
+
+	//Copies whatever content is still live out of a sealed pack and into the active one.
+	//Readers that looked up the old location just before may still be reading from it, so the old pack itself is left
+	// for a later deletePackIfEmpty(). Returns the number of contents moved.
+	public int compactPack(int packID) {
+		Log.v(TAG, String.format("LOCAL COMPACT PACK called with packID='%s'", packID));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		try {
+			int moved = 0;
+			for(LPackEntry entry : database.getPackDao().getInPack(packID)) {
+				byte[] contents = contentHelper.readPackedContents(entry);
+				LPackEntry newEntry = contentHelper.packContents(entry.name, contents);
+
+				//If the content was deleted or rewritten while we copied it, the copy just becomes dead space itself
+				if(database.getPackDao().move(entry.name, entry.packid, entry.offset, newEntry.packid, newEntry.offset) > 0)
+					moved++;
+			}
+			return moved;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	//Deletes a sealed pack, but only if no content points into it anymore.
+	//Returns the number of bytes freed, or -1 if the pack was kept.
+	public long deletePackIfEmpty(int packID) {
+		Log.v(TAG, String.format("LOCAL DELETE PACK IF EMPTY called with packID='%s'", packID));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		//Sealed packs never gain entries, so once there are none left there never will be again
+		if(!database.getPackDao().getInPack(packID).isEmpty())
+			return -1;
+		return contentHelper.deletePack(packID);
+	}
+
+
+	//Pages through content that hasn't been verified since the given time (epoch seconds), in name order
+	@NonNull
+	public List<LContent> getUnverifiedContentProps(long verifiedBefore, @Nullable String afterName, int limit) {
+		return database.getContentDao().getUnverified(verifiedBefore, afterName == null ? "" : afterName, limit);
+	}
+
+
+	//Re-hashes the content as it's stored on disk, reading no faster than the throttle allows.
+	//Returns true and records the verification time if the content is intact. If it isn't, whatever was found to be bad
+	// has been removed where that's safe (whole copies, chunks) and the content needs repairContents().
+	public boolean verifyContents(@NonNull String name, @Nullable TokenBucket throttle) throws ContentsNotFoundException {
+		Log.v(TAG, String.format("\nLOCAL VERIFY CONTENTS called with name='"+name+"'"));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		//Throws a ContentsNotFound exception if the content properties don't exist
+		LContent props = getContentProps(name);
+
+		try {
+			boolean intact;
+			if(props.chunked) {
+				List<String> badChunks = contentHelper.verifyChunks(getContentManifest(name), throttle);
+				intact = badChunks.isEmpty();
+				if(!intact)
+					Log.w(TAG, "Found "+badChunks.size()+" bad chunks in content name='"+name+"': "+badChunks);
+
+				//Any assembled copy can always be assembled again
+				contentHelper.verifyWholeContents(name, props.checksum, throttle);
+			}
+			else {
+				LPackEntry packEntry = props.packed ? getPackEntry(name) : null;
+				boolean compressed = !props.codec.equals(LContent.CODEC_NONE);
+				intact = contentHelper.verifyContents(name, props.checksum, packEntry, compressed, throttle);
+			}
+
+			if(intact)
+				database.getContentDao().setLastVerified(name, Instant.now().getEpochSecond());
+			else
+				Log.e(TAG, "Content failed verification! Name='"+name+"'");
+
+			return intact;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	//Replaces corrupted content with a fresh copy from the source, which must hash to the content's name
+	public LContent repairContents(@NonNull String name, @NonNull Uri source) {
+		Log.i(TAG, String.format("\nLOCAL REPAIR CONTENTS called with name='"+name+"'"));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		//A bad copy would keep the slot filled and the fresh one out, so clear out everything we have first
+		deleteContents(name);
+		return writeContents(name, source);
+	}
+
+
+	//Moves a batch of content from the old flat on-disk layout into the sharded layout.
+	//Returns the number of content files moved, or 0 once the migration is complete.
+	public int migrateContentLayout(int batchSize) {
+		Log.v(TAG, String.format("LOCAL MIGRATE CONTENT LAYOUT called with batchSize='%s'", batchSize));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		try {
+			return contentHelper.migrateFlatLayout(batchSize);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	public boolean isContentLayoutMigrated() {
+		return contentHelper.isFlatLayoutMigrated();
 	}
 
 
@@ -276,8 +1176,22 @@ public class LocalRepo {
 	// Journal
 	//---------------------------------------------------------------------------------------------
 
+	//Returns once the entry is committed. Entries from concurrent callers are committed together, see JournalWriter.
 	public void putJournalEntry(@NonNull LJournal journal) {
-		database.getJournalDao().insert(journal);
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		try {
+			putJournalEntryAsync(journal).get();
+		} catch (ExecutionException | InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	//For callers that don't need to wait. The entry is committed within a few milliseconds, and the future completes
+	// once it is, with the entry's journalid filled in.
+	@NonNull
+	public ListenableFuture<LJournal> putJournalEntryAsync(@NonNull LJournal journal) {
+		return journalWriter.submit(journal);
 	}
 
 	@NonNull
@@ -298,6 +1212,44 @@ public class LocalRepo {
 	}
 
 
+	//Whether the file's newest journal entry is a delete, without loading or parsing it. False if it has no entries.
+	public boolean isLatestChangeDelete(@NonNull UUID fileUID) {
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		Boolean isDeleted = database.getJournalDao().isLatestChangeDelete(fileUID);
+		return isDeleted != null && isDeleted;
+	}
+
+	//Files in the account whose contents were created or written after journalID
+	@NonNull
+	public List<UUID> getFilesWithContentChanges(int journalID, @NonNull UUID accountUID) {
+		Log.v(TAG, String.format("LOCAL JOURNAL GET CONTENT CHANGES called with journalID='%s', accountUID='%s'", journalID, accountUID));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		return database.getJournalDao().getFilesWithContentChanges(accountUID, journalID);
+	}
+
+
+	//Streaming versions of the above for a whole account, for when there could be more changes than we'd want in memory.
+	//Pages are keyed on journalid, so entries added while walking are picked up at the end rather than skipped.
+	@NonNull
+	public Iterator<LJournal> iterateLatestChangesFor(int journalID, @NonNull UUID accountUID) {
+		Log.v(TAG, String.format("LOCAL JOURNAL ITERATE LATEST called with journalID='%s', accountUID='%s'", journalID, accountUID));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		return new KeysetIterator<>((last, limit) -> database.getJournalDao().getLatestChangesPage(accountUID,
+				last == null ? journalID : last.journalid, limit), PAGE_SIZE);
+	}
+	@NonNull
+	public Iterator<LJournal> iterateAllChangesFor(int journalID, @NonNull UUID accountUID) {
+		Log.v(TAG, String.format("LOCAL JOURNAL ITERATE ALL called with journalID='%s', accountUID='%s'", journalID, accountUID));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		return new KeysetIterator<>((last, limit) -> database.getJournalDao().getAllChangesPage(accountUID,
+				last == null ? journalID : last.journalid, limit), PAGE_SIZE);
+	}
+
+
 	@NonNull
 	public List<LJournal> getAllChangesFor(int journalID, @Nullable UUID accountUID, @Nullable UUID[] fileUIDs) {
 		Log.v(TAG, String.format("LOCAL JOURNAL GET ALL called with journalID='%s', accountUID='%s'", journalID, accountUID));
@@ -314,4 +1266,69 @@ public class LocalRepo {
 		else
 			return database.getJournalDao().getAllChangesFor(accountUID, journalID, fileUIDs);
 	}
+
+
+	//Compaction
+	//Entries at or before the horizon have already been read by everything that reads the journal, so all that
+	// still matters about them is each file's latest state. Each file's entries up to the horizon are collapsed into
+	// its latest one, which keeps its journalid, so "latest change after X" gives the same answer for any X.
+
+	//Files with more than one entry at or before the horizon, in fileuid order, after the given one (null to start)
+	@NonNull
+	public List<UUID> getFilesToCompact(int horizon, @Nullable UUID afterFileUID, int limit) {
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+
+		if(afterFileUID == null)
+			return database.getJournalDao().getFilesToCompact(horizon, limit);
+		return database.getJournalDao().getFilesToCompact(horizon, afterFileUID, limit);
+	}
+
+	//Returns the number of entries removed
+	public int compactJournal(int horizon, @NonNull UUID... fileUIDs) {
+		Log.v(TAG, String.format("LOCAL JOURNAL COMPACT called with horizon='%s', fileCount='%s'", horizon, fileUIDs.length));
+		if(isOnMainThread()) throw new NetworkOnMainThreadException();
+		if(fileUIDs.length == 0) return 0;
+
+		return database.runInTransaction(() -> {
+			//Sorted by fileuid then journalid, so each file's entries are contiguous and oldest first
+			Map<UUID, List<LJournal>> byFile = new LinkedHashMap<>();
+			for(LJournal entry : database.getJournalDao().getChangesUpTo(horizon, fileUIDs))
+				byFile.computeIfAbsent(entry.fileuid, k -> new ArrayList<>()).add(entry);
+
+			int removed = 0;
+			for(List<LJournal> entries : byFile.values()) {
+				if(entries.size() < 2)
+					continue;
+
+				LJournal latest = entries.get(entries.size()-1);
+				latest.setChanges(collapseChanges(entries));
+				database.getJournalDao().update(latest);
+				removed += database.getJournalDao().deleteBefore(latest.fileuid, latest.journalid);
+			}
+			return removed;
+		});
+	}
+
+	//Later changes win. A delete wipes out everything before it, so a tombstone stays a tombstone.
+	//A file recreated after being deleted starts over from the entries after the delete, so it doesn't inherit
+	// isdeleted or anything else from its previous life.
+	@NonNull
+	private JsonObject collapseChanges(@NonNull List<LJournal> entries) {
+		int lastDelete = -1;
+		for(int i = 0; i < entries.size(); i++) {
+			if(entries.get(i).isdeleted)
+				lastDelete = i;
+		}
+
+		//Still deleted, so the tombstone is all there is to say
+		if(lastDelete == entries.size()-1)
+			return entries.get(lastDelete).changes.deepCopy();
+
+		JsonObject collapsed = new JsonObject();
+		for(LJournal entry : entries.subList(lastDelete + 1, entries.size())) {
+			for(Map.Entry<String, JsonElement> change : entry.changes.entrySet())
+				collapsed.add(change.getKey(), change.getValue());
+		}
+		return collapsed;
+	}
 }
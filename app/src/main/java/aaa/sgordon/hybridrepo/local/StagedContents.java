@@ -0,0 +1,37 @@
+package aaa.sgordon.hybridrepo.local;
+
+import androidx.annotation.NonNull;
+
+import aaa.sgordon.hybridrepo.local.types.LContent;
+
+//Content that's been written to disk but not yet recorded in the database.
+//Recording it is left to whoever commits it, so the content's rows can go in the same transaction as the file
+// pointing to them. See LocalRepo.stageContents() and LocalRepo.commitContentChange().
+public class StagedContents {
+	@NonNull
+	public final LContent props;
+
+	//The database writes, which must be run inside a transaction
+	private final Runnable record;
+	//Disk cleanup that's only safe once those writes are committed, e.g. dropping the raw copy of compressed content
+	private final Runnable finish;
+
+	StagedContents(@NonNull LContent props, @NonNull Runnable record, @NonNull Runnable finish) {
+		this.props = props;
+		this.record = record;
+		this.finish = finish;
+	}
+
+	//For content that's already in the database
+	StagedContents(@NonNull LContent props) {
+		this(props, () -> {}, () -> {});
+	}
+
+
+	void record() {
+		record.run();
+	}
+	void finish() {
+		finish.run();
+	}
+}
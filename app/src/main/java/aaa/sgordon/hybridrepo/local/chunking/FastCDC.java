@@ -0,0 +1,83 @@
+package aaa.sgordon.hybridrepo.local.chunking;
+
+import androidx.annotation.NonNull;
+
+//Content-defined chunking, following FastCDC (Xia et al., USENIX ATC '16).
+//A rolling gear hash is run over the data, and a chunk boundary is placed wherever the hash matches a mask.
+//Since boundaries depend only on nearby content, inserting or trimming data only changes the chunks around the edit,
+// and every other chunk (and its hash) stays the same. Normalized chunking uses a harder mask before the average
+// size and an easier one after, which keeps chunk sizes clustered around the average.
+public class FastCDC {
+	private static final long[] GEAR = generateGear();
+
+	private final int minSize;
+	private final int avgSize;
+	private final int maxSize;
+	private final long maskS;
+	private final long maskL;
+
+
+	//Sizes must satisfy min < avg < max, and avg must be a power of two
+	public FastCDC(int minSize, int avgSize, int maxSize) {
+		if(minSize <= 0 || minSize >= avgSize || avgSize >= maxSize || Integer.bitCount(avgSize) != 1)
+			throw new IllegalArgumentException(String.format("Invalid chunk sizes min='%s' avg='%s' max='%s'", minSize, avgSize, maxSize));
+
+		this.minSize = minSize;
+		this.avgSize = avgSize;
+		this.maxSize = maxSize;
+
+		int bits = Integer.numberOfTrailingZeros(avgSize);
+		this.maskS = mask(bits + 1);
+		this.maskL = mask(bits - 1);
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+
+	//Returns the length of the next chunk starting at offset. If fewer than maxSize bytes are available
+	// and more data may follow, callers should fill the buffer before cutting so boundaries stay stable.
+	public int cut(@NonNull byte[] data, int offset, int length) {
+		if(length <= minSize)
+			return length;
+
+		int end = Math.min(length, maxSize);
+		int normal = Math.min(avgSize, end);
+
+		//Nothing before minSize can be a boundary, so don't bother hashing it
+		long fp = 0;
+		int i = minSize;
+		for(; i < normal; i++) {
+			fp = (fp << 1) + GEAR[data[offset + i] & 0xFF];
+			if((fp & maskS) == 0)
+				return i + 1;
+		}
+		for(; i < end; i++) {
+			fp = (fp << 1) + GEAR[data[offset + i] & 0xFF];
+			if((fp & maskL) == 0)
+				return i + 1;
+		}
+		return end;
+	}
+
+
+	//Ones in the highest bits, since those have seen the most bytes in a shifting gear hash
+	private static long mask(int bits) {
+		return bits <= 0 ? 0 : -1L << (64 - bits);
+	}
+
+	//The gear table must never change, or previously stored chunks stop matching. SplitMix64 from a fixed seed.
+	private static long[] generateGear() {
+		long[] gear = new long[256];
+		long state = 0x5EED_C4A1_0F0C_D000L;
+		for(int i = 0; i < gear.length; i++) {
+			state += 0x9E3779B97F4A7C15L;
+			long z = state;
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			gear[i] = z ^ (z >>> 31);
+		}
+		return gear;
+	}
+}
@@ -0,0 +1,58 @@
+package aaa.sgordon.hybridrepo.local.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+//Walks a query a page at a time, so any number of rows can be gone through while only one page is held in memory.
+//Each page is asked for with the last row of the page before it (null for the first), and the query picks up right
+// after that row's key. Unlike OFFSET that's a single index seek no matter how deep in we are, and rows written
+// while we're walking don't shift the pages under us.
+public class KeysetIterator<T> implements Iterator<T> {
+	public interface PageFetcher<T> {
+		@NonNull
+		List<T> fetch(@Nullable T last, int limit);
+	}
+
+	private final PageFetcher<T> fetcher;
+	private final int pageSize;
+
+	private List<T> page = Collections.emptyList();
+	private int index = 0;
+	private boolean lastPage = false;
+	private T last = null;
+
+	public KeysetIterator(@NonNull PageFetcher<T> fetcher, int pageSize) {
+		if(pageSize <= 0) throw new IllegalArgumentException("Page size must be positive!");
+		this.fetcher = fetcher;
+		this.pageSize = pageSize;
+	}
+
+
+	@Override
+	public boolean hasNext() {
+		if(index < page.size())
+			return true;
+		if(lastPage)
+			return false;
+
+		//Pages are fetched lazily, so nothing is queried until the caller actually asks for a row
+		page = fetcher.fetch(last, pageSize);
+		index = 0;
+		lastPage = page.size() < pageSize;
+		return !page.isEmpty();
+	}
+
+	@Override
+	public T next() {
+		if(!hasNext())
+			throw new NoSuchElementException();
+
+		last = page.get(index++);
+		return last;
+	}
+}
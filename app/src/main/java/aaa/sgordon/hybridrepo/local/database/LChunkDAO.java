@@ -0,0 +1,38 @@
+package aaa.sgordon.hybridrepo.local.database;
+
+import androidx.room.Dao;
+import androidx.room.Query;
+import androidx.room.Upsert;
+
+import java.util.List;
+
+import aaa.sgordon.hybridrepo.local.types.LChunk;
+import aaa.sgordon.hybridrepo.local.types.LContentChunk;
+
+@Dao
+public interface LChunkDAO {
+	@Query("SELECT * FROM chunk WHERE hash IN (:hashes)")
+	List<LChunk> get(String... hashes);
+
+	@Upsert
+	void put(LChunk... chunks);
+
+	//Of the given chunks, returns those no manifest refers to anymore
+	@Query("SELECT hash FROM chunk WHERE hash IN (:hashes) AND hash NOT IN (SELECT chunkhash FROM contentchunk)")
+	List<String> getUnreferenced(String... hashes);
+
+	@Query("DELETE FROM chunk WHERE hash IN (:hashes)")
+	Integer delete(String... hashes);
+
+
+	//---------------------------------------------------------------------------------------------
+
+	@Query("SELECT * FROM contentchunk WHERE name = :name ORDER BY idx")
+	List<LContentChunk> getManifest(String name);
+
+	@Upsert
+	void putManifest(LContentChunk... entries);
+
+	@Query("DELETE FROM contentchunk WHERE name = :name")
+	Integer deleteManifest(String name);
+}
@@ -5,16 +5,53 @@ import androidx.room.Delete;
 import androidx.room.Query;
 import androidx.room.Upsert;
 
+import java.util.List;
+
 import aaa.sgordon.hybridrepo.local.types.LContent;
 
 @Dao
 public interface LContentDAO {
 	@Query("SELECT * FROM content WHERE name = :name")
 	LContent get(String name);
+	@Query("SELECT * FROM content WHERE name IN (:names)")
+	List<LContent> get(String... names);
+
+	//Pages through every content in name order, starting after the given name
+	@Query("SELECT * FROM content WHERE name > :afterName ORDER BY name LIMIT :limit")
+	List<LContent> getAfter(String afterName, int limit);
+
+	//Bytes the content store takes up on disk. Chunks are counted once no matter how many contents share them.
+	//Whole copies rebuilt for reading count too, until Cleanup drops them.
+	@Query("SELECT (SELECT IFNULL(SUM(storedsize), 0) FROM content WHERE chunked = 0) + (SELECT IFNULL(SUM(size), 0) FROM chunk) " +
+			"+ (SELECT IFNULL(SUM(size), 0) FROM content WHERE wholecopytime IS NOT NULL)")
+	long getStoredSize();
+
+	//Content that hasn't been verified since the given time, in name order starting after the given name
+	@Query("SELECT * FROM content WHERE (lastverified IS NULL OR lastverified < :verifiedBefore) AND name > :afterName " +
+			"ORDER BY name LIMIT :limit")
+	List<LContent> getUnverified(long verifiedBefore, String afterName, int limit);
+
+	@Query("UPDATE content SET lastverified = :time WHERE name = :name")
+	Integer setLastVerified(String name, long time);
+
+	//Content with a whole copy that hasn't been used since the given time, least recently used first
+	@Query("SELECT * FROM content WHERE wholecopytime < :usedBefore ORDER BY wholecopytime LIMIT :limit")
+	List<LContent> getIdleWholeCopies(long usedBefore, int limit);
+
+	@Query("UPDATE content SET wholecopytime = :time WHERE name = :name")
+	Integer setWholeCopyTime(String name, long time);
+
+	//Only clears it if nobody has used the copy since it was last looked at
+	@Query("UPDATE content SET wholecopytime = NULL WHERE name = :name AND wholecopytime = :lastUsed")
+	Integer clearWholeCopyTime(String name, long lastUsed);
 
 	@Upsert
 	void put(LContent... contents);
 
+	//Marks existing content as freshly written, which keeps Cleanup away from it for a while
+	@Query("UPDATE content SET createtime = :time WHERE name = :name")
+	Integer touch(String name, long time);
+
 	@Delete
 	Integer delete(LContent... contents);
 	@Query("DELETE FROM content WHERE name = :fileHash")
@@ -1,6 +1,7 @@
 package aaa.sgordon.hybridrepo.local.database;
 
 import androidx.annotation.Nullable;
+import androidx.paging.PagingSource;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Query;
@@ -23,10 +24,21 @@ https://medium.com/@stephenja/timestamps-with-android-room-f3fd57b48250
 
 @Dao
 public interface LFileDAO {
+	//Only ever the first 500. To go through a whole account, use the pages below.
 	@Query("SELECT * FROM file WHERE accountuid IN (:accountuids) LIMIT 500")
 	List<LFile> getByAccount(UUID... accountuids);
-	@Query("SELECT * FROM file WHERE accountuid IN (:accountuids) LIMIT 500 OFFSET :offset")
-	List<LFile> getByAccount(int offset, UUID... accountuids);
+
+	//Every file in the account, a keyset page at a time in fileuid order. See KeysetIterator.
+	//Each page is a seek into (accountuid, fileuid) right after the last file of the previous one, so deep pages cost
+	// the same as the first, and files added mid-listing can't shift rows between pages the way OFFSET did.
+	@Query("SELECT * FROM file WHERE accountuid = :accountUID ORDER BY fileuid LIMIT :limit")
+	List<LFile> getByAccountPage(UUID accountUID, int limit);
+	@Query("SELECT * FROM file WHERE accountuid = :accountUID AND fileuid > :afterUID ORDER BY fileuid LIMIT :limit")
+	List<LFile> getByAccountPage(UUID accountUID, UUID afterUID, int limit);
+
+	//For the UI. Room invalidates the source whenever the file table changes, so lists stay live.
+	@Query("SELECT * FROM file WHERE accountuid = :accountUID ORDER BY fileuid")
+	PagingSource<Integer, LFile> pageByAccount(UUID accountUID);
 
 
 	@Nullable
@@ -35,11 +47,29 @@ public interface LFileDAO {
 	@Query("SELECT * FROM file WHERE fileuid IN (:fileUIDs)")
 	List<LFile> get(UUID... fileUIDs);
 
+	//Every file pointing at any of the given contents
+	@Query("SELECT * FROM file WHERE checksum IN (:checksums)")
+	List<LFile> getByChecksum(String... checksums);
+
+	//Files in least recently used order, see LFile.getLastused(). Pages are read straight off (isdir, lastused, fileuid),
+	// so nothing gets sorted.
+	@Query("SELECT * FROM file WHERE isdir = 0 ORDER BY lastused, fileuid LIMIT :limit")
+	List<LFile> getLeastRecentlyUsed(int limit);
+	@Query("SELECT * FROM file WHERE isdir = 0 AND lastused >= :lastUsed AND (lastused > :lastUsed OR fileuid > :afterUID) " +
+			"ORDER BY lastused, fileuid LIMIT :limit")
+	List<LFile> getLeastRecentlyUsed(long lastUsed, UUID afterUID, int limit);
+
 	@Upsert
 	List<Long> put(LFile... files);
 
+	//Access times are local bookkeeping, so this skips everything putFileProps does
+	@Query("UPDATE file SET accesstime = :accessTime, lastused = :accessTime WHERE fileuid = :fileUID")
+	Integer setAccessTime(UUID fileUID, long accessTime);
+
 	@Delete
 	Integer delete(LFile file);
 	@Query("DELETE FROM file WHERE fileuid = :fileUID")
 	Integer delete(UUID fileUID);
+	@Query("DELETE FROM file WHERE fileuid IN (:fileUIDs)")
+	Integer delete(UUID... fileUIDs);
 }
\ No newline at end of file
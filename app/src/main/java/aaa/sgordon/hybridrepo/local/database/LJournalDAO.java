@@ -1,9 +1,11 @@
 package aaa.sgordon.hybridrepo.local.database;
 
+import androidx.annotation.Nullable;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.Update;
 
 import java.util.List;
 import java.util.UUID;
@@ -21,19 +23,74 @@ public interface LJournalDAO {
 	List<LJournal> getAllChangesFor(int journalID, UUID... fileUIDs);
 
 
-	@Query("SELECT * FROM journal WHERE journalid > :journalID AND accountuid = :accountUID AND fileuid IN (:fileUIDs) "+
-			"GROUP BY fileuid ORDER BY MAX(journalid)")
+	//Latest change per file, found by grabbing each file's MAX(journalid) and then looking up just those rows.
+	//GROUP BY with bare columns hands back an arbitrary row from each group, and without the indexes every query
+	// scanned the whole journal. The inner query now walks (accountuid, journalid) or (fileuid, journalid) starting
+	// right at journalID, so it only ever touches entries newer than what the caller has already seen.
+	@Query("SELECT * FROM journal WHERE journalid IN (SELECT MAX(journalid) FROM journal "+
+			"WHERE journalid > :journalID AND accountuid = :accountUID AND fileuid IN (:fileUIDs) GROUP BY fileuid) "+
+			"ORDER BY journalid")
 	List<LJournal> getLatestChangeFor(UUID accountUID, int journalID, UUID... fileUIDs);
-	@Query("SELECT * FROM journal WHERE journalid > :journalID AND accountuid = :accountUID "+
-			"GROUP BY fileuid ORDER BY MAX(journalid)")
+	@Query("SELECT * FROM journal WHERE journalid IN (SELECT MAX(journalid) FROM journal "+
+			"WHERE journalid > :journalID AND accountuid = :accountUID GROUP BY fileuid) "+
+			"ORDER BY journalid")
 	List<LJournal> getLatestChangeFor(UUID accountUID, int journalID);
-	@Query("SELECT * FROM journal WHERE journalid > :journalID AND fileuid IN (:fileUIDs) "+
-			"GROUP BY fileuid ORDER BY MAX(journalid)")
+	@Query("SELECT * FROM journal WHERE journalid IN (SELECT MAX(journalid) FROM journal "+
+			"WHERE journalid > :journalID AND fileuid IN (:fileUIDs) GROUP BY fileuid) "+
+			"ORDER BY journalid")
 	List<LJournal> getLatestChangeFor(int journalID, UUID... fileUIDs);
 
 
+	//Questions answered from the typed change columns, straight out of an index without touching the table.
+	//Walks (fileuid, journalid, isdeleted) backwards from the file's newest entry. Null if the file has no entries.
+	@Nullable
+	@Query("SELECT isdeleted FROM journal WHERE fileuid = :fileUID ORDER BY journalid DESC LIMIT 1")
+	Boolean isLatestChangeDelete(UUID fileUID);
+
+	//Files created or written since journalID, off (accountuid, changekind, journalid, fileuid)
+	@Query("SELECT DISTINCT fileuid FROM journal WHERE accountuid = :accountUID "+
+			"AND changekind IN ('"+LJournal.KIND_CREATE+"', '"+LJournal.KIND_CONTENT+"') AND journalid > :journalID")
+	List<UUID> getFilesWithContentChanges(UUID accountUID, int journalID);
+
+
+	//Keyset pages for walking the journal without holding all of it, see KeysetIterator.
+	//afterJournalID starts out as the caller's journalID, then becomes the last entry of the previous page.
+	@Query("SELECT * FROM journal WHERE journalid > :afterJournalID AND accountuid = :accountUID "+
+			"ORDER BY journalid LIMIT :limit")
+	List<LJournal> getAllChangesPage(UUID accountUID, int afterJournalID, int limit);
+
+	//The latest change per file after journalID is just each file's newest entry, if it's newer than journalID.
+	//Unlike the GROUP BY above, that can be decided one row at a time with a single (fileuid, journalid) seek,
+	// so it pages cleanly.
+	@Query("SELECT * FROM journal AS j WHERE journalid > :afterJournalID AND accountuid = :accountUID "+
+			"AND NOT EXISTS (SELECT 1 FROM journal AS later WHERE later.fileuid = j.fileuid AND later.journalid > j.journalid) "+
+			"ORDER BY journalid LIMIT :limit")
+	List<LJournal> getLatestChangesPage(UUID accountUID, int afterJournalID, int limit);
+
+
+	//Returns the new journalids, in the same order
 	@Insert
-	void insert(LJournal... entries);
+	long[] insert(LJournal... entries);
+
+
+	//Compaction. Walks (fileuid, journalid) to find files with more than one entry at or before the horizon, a page
+	// of fileuids at a time. UUIDs are BLOBs, so fileuid ordering is plain byte order.
+	@Query("SELECT fileuid FROM journal WHERE journalid <= :horizon "+
+			"GROUP BY fileuid HAVING COUNT(*) > 1 ORDER BY fileuid LIMIT :limit")
+	List<UUID> getFilesToCompact(int horizon, int limit);
+	@Query("SELECT fileuid FROM journal WHERE journalid <= :horizon AND fileuid > :afterFileUID "+
+			"GROUP BY fileuid HAVING COUNT(*) > 1 ORDER BY fileuid LIMIT :limit")
+	List<UUID> getFilesToCompact(int horizon, UUID afterFileUID, int limit);
+
+	@Query("SELECT * FROM journal WHERE journalid <= :horizon AND fileuid IN (:fileUIDs) ORDER BY fileuid, journalid")
+	List<LJournal> getChangesUpTo(int horizon, UUID... fileUIDs);
+
+	@Update
+	void update(LJournal... entries);
+
+	//Everything for the file before the entry its changes were collapsed into
+	@Query("DELETE FROM journal WHERE fileuid = :fileUID AND journalid < :keptJournalID")
+	int deleteBefore(UUID fileUID, int keptJournalID);
 
 
 	//Might remove since this is append-only, but it's here to mulligan
@@ -0,0 +1,35 @@
+package aaa.sgordon.hybridrepo.local.database;
+
+import androidx.room.Dao;
+import androidx.room.Query;
+import androidx.room.Upsert;
+
+import java.util.List;
+
+import aaa.sgordon.hybridrepo.local.types.LPackEntry;
+
+@Dao
+public interface LPackDAO {
+	@Query("SELECT * FROM packentry WHERE name = :name")
+	LPackEntry get(String name);
+
+	@Query("SELECT * FROM packentry WHERE packid = :packID")
+	List<LPackEntry> getInPack(int packID);
+
+	//Bytes of the pack that still belong to content
+	@Query("SELECT IFNULL(SUM(length), 0) FROM packentry WHERE packid = :packID")
+	long getLiveBytes(int packID);
+	@Query("SELECT IFNULL(SUM(length), 0) FROM packentry")
+	long getLiveBytes();
+
+	@Upsert
+	void put(LPackEntry... entries);
+
+	//Only moves the entry if it's still where it was read from, so content deleted or rewritten since is left alone
+	@Query("UPDATE packentry SET packid = :newPackID, `offset` = :newOffset WHERE name = :name AND packid = :oldPackID " +
+			"AND `offset` = :oldOffset")
+	Integer move(String name, int oldPackID, long oldOffset, int newPackID, long newOffset);
+
+	@Query("DELETE FROM packentry WHERE name = :name")
+	Integer delete(String name);
+}
@@ -2,49 +2,45 @@ package aaa.sgordon.hybridrepo.local.database;
 
 import androidx.room.TypeConverter;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
-import com.google.gson.reflect.TypeToken;
 
-import java.lang.reflect.Type;
 import java.sql.Timestamp;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import aaa.sgordon.hybridrepo.Json;
+import aaa.sgordon.hybridrepo.Utilities;
+
 public class LocalConverters {
 	@TypeConverter
 	public static List<String> toList(String value) {
-		Type listType = new TypeToken<List<String>>() {}.getType();
-		//System.out.println("Converting toList: "+value+"  to  "+new Gson().fromJson(value, listType));
-
-		return new Gson().fromJson(value, listType);
+		return Json.parseStringList(value);
 	}
 
 	@TypeConverter
 	public static String fromList(List<String> list) {
-		//System.out.println("Converting fromList: "+list+"  to  "+new Gson().toJsonTree(list).getAsJsonArray().toString());
-
-		return new Gson().toJsonTree(list).getAsJsonArray().toString();
+		return Json.stringListToJson(list);
 	}
 
 	//---------------------------------------------------------------------------------------------
 
+	//Stored as 16 byte BLOBs rather than 36 character strings, which keeps keys and indexes less than half the size
 	@TypeConverter
-	public static UUID toUUID(String value) {
-		return UUID.fromString(value);
+	public static UUID toUUID(byte[] value) {
+		return Utilities.bytesToUUID(value);
 	}
 
 	@TypeConverter
-	public static String fromUUID(UUID uuid) {
-		return uuid.toString();
+	public static byte[] fromUUID(UUID uuid) {
+		return Utilities.uuidToBytes(uuid);
 	}
 
 	//---------------------------------------------------------------------------------------------
 
 	@TypeConverter
 	public static JsonObject toJsonObject(String value) {
-		return new Gson().fromJson(value, JsonObject.class);
+		return Json.parseObject(value);
 	}
 
 	@TypeConverter
@@ -56,14 +52,12 @@ public class LocalConverters {
 
 	@TypeConverter
 	public static Map<String, Object> toMap(String value) {
-		Type mapType = new TypeToken<Map<String, Object>>() {}.getType();
-
-		return new Gson().fromJson(value, mapType);
+		return Json.parseMap(value);
 	}
 
 	@TypeConverter
 	public static String fromMap(Map<String, Object> list) {
-		return new Gson().toJson(list);
+		return Json.mapToJson(list);
 	}
 
 	//---------------------------------------------------------------------------------------------
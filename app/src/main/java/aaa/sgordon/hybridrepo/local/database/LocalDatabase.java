@@ -1,6 +1,7 @@
 package aaa.sgordon.hybridrepo.local.database;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -8,17 +9,27 @@ import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import com.google.gson.JsonObject;
 
 import java.util.Arrays;
+import java.util.UUID;
 
+import aaa.sgordon.hybridrepo.Json;
 import aaa.sgordon.hybridrepo.MyApplication;
 import aaa.sgordon.hybridrepo.local.types.LAccount;
+import aaa.sgordon.hybridrepo.local.types.LChunk;
 import aaa.sgordon.hybridrepo.local.types.LContent;
+import aaa.sgordon.hybridrepo.local.types.LContentChunk;
 import aaa.sgordon.hybridrepo.local.types.LFile;
 import aaa.sgordon.hybridrepo.local.types.LJournal;
+import aaa.sgordon.hybridrepo.local.types.LPackEntry;
 
 
-@Database(entities = {LAccount.class, LFile.class, LJournal.class, LContent.class}, version = 1)
+@Database(entities = {LAccount.class, LFile.class, LJournal.class, LContent.class, LChunk.class, LContentChunk.class, LPackEntry.class}, version = 12)
 @TypeConverters({LocalConverters.class})
 public abstract class LocalDatabase extends RoomDatabase {
 
@@ -27,6 +38,8 @@ public abstract class LocalDatabase extends RoomDatabase {
 	public abstract LFileDAO getFileDao();
 	public abstract LJournalDAO getJournalDao();
 	public abstract LContentDAO getContentDao();
+	public abstract LChunkDAO getChunkDao();
+	public abstract LPackDAO getPackDao();
 
 
 
@@ -44,7 +57,165 @@ public abstract class LocalDatabase extends RoomDatabase {
 			};
 			//dbBuilder.setQueryCallback(callback, Executors.newSingleThreadExecutor());
 
+			dbBuilder.addMigrations(MIGRATIONS);
+
 			return dbBuilder.build();
 		}
 	}
-}
\ No newline at end of file
+
+
+	//---------------------------------------------------------------------------------------------
+	// Migrations
+	//---------------------------------------------------------------------------------------------
+
+	//Chunked content storage
+	static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase db) {
+			db.execSQL("CREATE TABLE IF NOT EXISTS `chunk` (`hash` TEXT NOT NULL, `size` INTEGER NOT NULL DEFAULT 0, " +
+					"PRIMARY KEY(`hash`))");
+			db.execSQL("CREATE TABLE IF NOT EXISTS `contentchunk` (`name` TEXT NOT NULL, `idx` INTEGER NOT NULL, " +
+					"`chunkhash` TEXT NOT NULL, `offset` INTEGER NOT NULL DEFAULT 0, `size` INTEGER NOT NULL DEFAULT 0, " +
+					"PRIMARY KEY(`name`, `idx`))");
+			db.execSQL("CREATE INDEX IF NOT EXISTS `index_contentchunk_chunkhash` ON `contentchunk` (`chunkhash`)");
+
+			db.execSQL("ALTER TABLE `content` ADD COLUMN `chunked` INTEGER NOT NULL DEFAULT false");
+		}
+	};
+
+	//Per-content compression
+	static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase db) {
+			db.execSQL("ALTER TABLE `content` ADD COLUMN `codec` TEXT NOT NULL DEFAULT 'none'");
+			db.execSQL("ALTER TABLE `content` ADD COLUMN `storedsize` INTEGER NOT NULL DEFAULT 0");
+
+			//Everything before this was stored raw
+			db.execSQL("UPDATE `content` SET `storedsize` = `size`");
+		}
+	};
+
+	//Pack files for small content
+	static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase db) {
+			db.execSQL("CREATE TABLE IF NOT EXISTS `packentry` (`name` TEXT NOT NULL, `packid` INTEGER NOT NULL, " +
+					"`offset` INTEGER NOT NULL DEFAULT 0, `length` INTEGER NOT NULL DEFAULT 0, PRIMARY KEY(`name`))");
+
+			db.execSQL("ALTER TABLE `content` ADD COLUMN `packed` INTEGER NOT NULL DEFAULT false");
+		}
+	};
+
+	//Cleanup looks up which files use each content
+	static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase db) {
+			db.execSQL("CREATE INDEX IF NOT EXISTS `index_file_checksum` ON `file` (`checksum`)");
+		}
+	};
+
+	//Content scrubbing
+	static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase db) {
+			db.execSQL("ALTER TABLE `content` ADD COLUMN `lastverified` INTEGER");
+		}
+	};
+
+	//Sync reads the journal by account or file, always after some journalid
+	static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase db) {
+			db.execSQL("CREATE INDEX IF NOT EXISTS `index_journal_accountuid_journalid` ON `journal` (`accountuid`, `journalid`)");
+			db.execSQL("CREATE INDEX IF NOT EXISTS `index_journal_fileuid_journalid` ON `journal` (`fileuid`, `journalid`)");
+		}
+	};
+
+	//UUIDs as 16 byte BLOBs instead of 36 character strings
+	static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase db) {
+			UUIDBlobMigration.rebuild(db, "account", "accountuid", "rootfileuid");
+			UUIDBlobMigration.rebuild(db, "file", "fileuid", "accountuid");
+			UUIDBlobMigration.rebuild(db, "journal", "fileuid", "accountuid");
+		}
+	};
+
+	//Listing an account's files walks (accountuid, fileuid) instead of scanning the whole table
+	static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase db) {
+			db.execSQL("CREATE INDEX IF NOT EXISTS `index_file_accountuid_fileuid` ON `file` (`accountuid`, `fileuid`)");
+		}
+	};
+
+	//Typed change columns on the journal, pulled out of each entry's changes JSON
+	static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase db) {
+			db.execSQL("ALTER TABLE `journal` ADD COLUMN `changekind` TEXT NOT NULL DEFAULT 'props'");
+			db.execSQL("ALTER TABLE `journal` ADD COLUMN `newchecksum` TEXT");
+			db.execSQL("ALTER TABLE `journal` ADD COLUMN `newattrhash` TEXT");
+			db.execSQL("ALTER TABLE `journal` ADD COLUMN `isdeleted` INTEGER NOT NULL DEFAULT false");
+
+			//Fill them in for every existing entry, using the same rules as new entries. Done before the new indexes
+			// exist so they're built once at the end rather than updated row by row.
+			SupportSQLiteStatement backfill = db.compileStatement("UPDATE `journal` SET `changekind` = ?, " +
+					"`newchecksum` = ?, `newattrhash` = ?, `isdeleted` = ? WHERE `journalid` = ?");
+			try (Cursor cursor = db.query("SELECT `journalid`, `changes` FROM `journal`")) {
+				while(cursor.moveToNext()) {
+					JsonObject changes = Json.parseObject(cursor.getString(1));
+					if(changes == null)
+						continue;
+
+					//Only the typed columns are used, so the UUIDs don't matter
+					LJournal typed = new LJournal(new UUID(0, 0), new UUID(0, 0), changes);
+					backfill.clearBindings();
+					backfill.bindString(1, typed.changekind);
+					if(typed.newchecksum == null) backfill.bindNull(2);
+					else backfill.bindString(2, typed.newchecksum);
+					if(typed.newattrhash == null) backfill.bindNull(3);
+					else backfill.bindString(3, typed.newattrhash);
+					backfill.bindLong(4, typed.isdeleted ? 1 : 0);
+					backfill.bindLong(5, cursor.getLong(0));
+					backfill.executeUpdateDelete();
+				}
+			}
+
+			db.execSQL("DROP INDEX IF EXISTS `index_journal_fileuid_journalid`");
+			db.execSQL("CREATE INDEX IF NOT EXISTS `index_journal_fileuid_journalid_isdeleted` ON `journal` " +
+					"(`fileuid`, `journalid`, `isdeleted`)");
+			db.execSQL("CREATE INDEX IF NOT EXISTS `index_journal_accountuid_changekind_journalid_fileuid` ON `journal` " +
+					"(`accountuid`, `changekind`, `journalid`, `fileuid`)");
+		}
+	};
+
+	//Whole copies rebuilt for reading are tracked so Cleanup can drop them again
+	static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase db) {
+			db.execSQL("ALTER TABLE `content` ADD COLUMN `wholecopytime` INTEGER");
+			db.execSQL("CREATE INDEX IF NOT EXISTS `index_content_wholecopytime` ON `content` (`wholecopytime`)");
+
+			//Copies rebuilt before this were never dropped, and there's no telling which content has one without
+			// going to disk. Assume they all do. Cleanup drops the ones that exist and clears the rest.
+			db.execSQL("UPDATE `content` SET `wholecopytime` = CAST(strftime('%s', 'now') AS INTEGER) " +
+					"WHERE `chunked` != 0 OR `packed` != 0 OR `codec` != 'none'");
+		}
+	};
+
+	//Eviction walks files in least recently used order off an index instead of sorting the whole table
+	static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+		@Override
+		public void migrate(@NonNull SupportSQLiteDatabase db) {
+			db.execSQL("ALTER TABLE `file` ADD COLUMN `lastused` INTEGER");
+			db.execSQL("UPDATE `file` SET `lastused` = COALESCE(`accesstime`, `modifytime`, `createtime`)");
+			db.execSQL("CREATE INDEX IF NOT EXISTS `index_file_isdir_lastused_fileuid` ON `file` (`isdir`, `lastused`, `fileuid`)");
+		}
+	};
+
+
+	//In order. Also run one at a time by the migration tests, against the schemas Room exports to app/schemas.
+	static final Migration[] MIGRATIONS = {MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6,
+			MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10, MIGRATION_10_11, MIGRATION_11_12};
+}
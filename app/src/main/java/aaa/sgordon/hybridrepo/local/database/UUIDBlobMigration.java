@@ -0,0 +1,117 @@
+package aaa.sgordon.hybridrepo.local.database;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import aaa.sgordon.hybridrepo.Utilities;
+
+//Moves UUID columns from 36 character TEXT to 16 byte BLOBs.
+//SQLite can't change a column's type, and the version shipped with older Androids can't turn a UUID string into
+// bytes either, so each table is rebuilt: a copy is created from the table's own CREATE statement with the UUID
+// columns retyped, every row is copied over, and then each row's UUIDs are converted here in Java.
+//Used by both LocalDatabase and HybridHelpDatabase.
+public final class UUIDBlobMigration {
+	private UUIDBlobMigration() {}
+
+
+	//Must run inside the migration's transaction, which Room already provides
+	public static void rebuild(@NonNull SupportSQLiteDatabase db, @NonNull String table, @NonNull String... uuidColumns) {
+		String createTable = null;
+		List<String> createIndexes = new ArrayList<>();
+		try (Cursor cursor = db.query("SELECT type, sql FROM sqlite_master WHERE tbl_name = ? AND sql IS NOT NULL",
+				new Object[]{ table })) {
+			while(cursor.moveToNext()) {
+				if(cursor.getString(0).equals("table"))
+					createTable = cursor.getString(1);
+				else
+					createIndexes.add(cursor.getString(1));
+			}
+		}
+		if(createTable == null)
+			throw new IllegalStateException("Table '"+table+"' doesn't exist!");
+
+		List<String> columns = new ArrayList<>();
+		try (Cursor cursor = db.query("PRAGMA table_info(`"+table+"`)")) {
+			while(cursor.moveToNext())
+				columns.add("`"+cursor.getString(cursor.getColumnIndexOrThrow("name"))+"`");
+		}
+
+
+		//Same table, but with each UUID column declared as a BLOB
+		String newTable = table+"_new";
+		String createNewTable = createTable.replaceFirst("`"+table+"`", "`"+newTable+"`");
+		for(String column : uuidColumns) {
+			String retyped = createNewTable.replace("`"+column+"` TEXT", "`"+column+"` BLOB");
+			if(retyped.equals(createNewTable))
+				throw new IllegalStateException("Column '"+column+"' in table '"+table+"' isn't a TEXT column!");
+			createNewTable = retyped;
+		}
+		db.execSQL(createNewTable);
+
+
+		//Copy everything over as is, keeping rowids so rows can be matched up for the conversion below
+		String columnList = String.join(", ", columns);
+		db.execSQL("INSERT INTO `"+newTable+"` (rowid, "+columnList+") SELECT rowid, "+columnList+" FROM `"+table+"`");
+
+		StringBuilder update = new StringBuilder("UPDATE `"+newTable+"` SET ");
+		StringBuilder select = new StringBuilder("SELECT rowid");
+		for(int i = 0; i < uuidColumns.length; i++) {
+			update.append(i == 0 ? "" : ", ").append("`").append(uuidColumns[i]).append("` = ?");
+			select.append(", `").append(uuidColumns[i]).append("`");
+		}
+		update.append(" WHERE rowid = ?");
+		select.append(" FROM `").append(table).append("`");
+
+		//Read from the untouched original while updating the copy
+		SupportSQLiteStatement convert = db.compileStatement(update.toString());
+		try (Cursor cursor = db.query(select.toString())) {
+			while(cursor.moveToNext()) {
+				convert.clearBindings();
+				for(int i = 0; i < uuidColumns.length; i++) {
+					if(cursor.isNull(i+1))
+						convert.bindNull(i+1);
+					else
+						convert.bindBlob(i+1, Utilities.uuidToBytes(UUID.fromString(cursor.getString(i+1))));
+				}
+				convert.bindLong(uuidColumns.length+1, cursor.getLong(0));
+				convert.executeUpdateDelete();
+			}
+		}
+
+
+		//An AUTOINCREMENT table's counter goes with it when it's dropped, and the copy's only counts up to the
+		// highest row copied. Carry the original over so ids of deleted rows are never handed out again.
+		Long sequence = null;
+		if(hasSequence(db)) {
+			try (Cursor cursor = db.query("SELECT seq FROM sqlite_sequence WHERE name = ?", new Object[]{ table })) {
+				if(cursor.moveToFirst())
+					sequence = cursor.getLong(0);
+			}
+		}
+
+
+		db.execSQL("DROP TABLE `"+table+"`");
+		db.execSQL("ALTER TABLE `"+newTable+"` RENAME TO `"+table+"`");
+		for(String createIndex : createIndexes)
+			db.execSQL(createIndex);
+
+		if(sequence != null) {
+			db.execSQL("DELETE FROM sqlite_sequence WHERE name = ?", new Object[]{ table });
+			db.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES (?, ?)", new Object[]{ table, sequence });
+		}
+	}
+
+
+	private static boolean hasSequence(@NonNull SupportSQLiteDatabase db) {
+		try (Cursor cursor = db.query("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'sqlite_sequence'")) {
+			return cursor.moveToFirst();
+		}
+	}
+}
@@ -7,14 +7,14 @@ import androidx.room.Entity;
 import androidx.room.Ignore;
 import androidx.room.PrimaryKey;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 
 import java.time.Instant;
 import java.util.Objects;
 import java.util.UUID;
 
+import aaa.sgordon.hybridrepo.Json;
+
 @Entity(tableName = "account")
 public class LAccount {
 	@PrimaryKey
@@ -64,8 +64,7 @@ public class LAccount {
 
 
 	public JsonObject toJson() {
-		Gson gson = new GsonBuilder().create();
-		return gson.toJsonTree(this).getAsJsonObject();
+		return Json.toJsonObject(this);
 	}
 
 	@NonNull
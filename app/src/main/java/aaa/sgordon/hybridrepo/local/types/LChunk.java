@@ -0,0 +1,39 @@
+package aaa.sgordon.hybridrepo.local.types;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+import com.google.gson.JsonObject;
+
+import aaa.sgordon.hybridrepo.Json;
+
+//A piece of chunked content, stored once no matter how many contents include it
+@Entity(tableName = "chunk")
+public class LChunk {
+	@PrimaryKey
+	@NonNull
+	public String hash;
+
+	@ColumnInfo(defaultValue = "0")
+	public int size;
+
+
+	public LChunk(@NonNull String hash, int size) {
+		this.hash = hash;
+		this.size = size;
+	}
+
+
+	public JsonObject toJson() {
+		return Json.toJsonObject(this);
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		JsonObject json = toJson();
+		return json.toString();
+	}
+}
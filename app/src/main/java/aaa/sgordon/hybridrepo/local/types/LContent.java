@@ -3,16 +3,20 @@ package aaa.sgordon.hybridrepo.local.types;
 import androidx.annotation.NonNull;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 
 import java.time.Instant;
 
-@Entity(tableName = "content")
+import aaa.sgordon.hybridrepo.Json;
+
+@Entity(tableName = "content", indices = {@Index("wholecopytime")})
 public class LContent {
+	public static final String CODEC_NONE = "none";
+	public static final String CODEC_DEFLATE = "deflate";
+
 	@PrimaryKey
 	@NonNull
 	public String name;
@@ -23,6 +27,30 @@ public class LContent {
 	@ColumnInfo(defaultValue = "0")
 	public int size;
 
+	//If true, the content is stored as chunks (see LContentChunk) rather than as one whole blob
+	@ColumnInfo(defaultValue = "false")
+	public boolean chunked;
+
+	//If true, the content is small enough to live inside a shared pack file (see LPackEntry)
+	@ColumnInfo(defaultValue = "false")
+	public boolean packed;
+
+	//How the content is stored on disk, and how many bytes that takes. Size is always the uncompressed size.
+	//Quoted, so the default reads the same here and in MIGRATION_2_3 however it gets written out
+	@NonNull
+	@ColumnInfo(defaultValue = "'"+CODEC_NONE+"'")
+	public String codec;
+	@ColumnInfo(defaultValue = "0")
+	public int storedsize;
+
+	//Last time the scrubber re-hashed this content and found it intact, or null if it never has
+	public Long lastverified;
+
+	//Last time a whole copy of chunked, packed, or compressed content was rebuilt or read, or null if there's no copy.
+	//Those copies are only there for reading, so Cleanup drops them once they've sat unused for a while.
+	public Long wholecopytime;
+
+	//Bumped whenever existing content is written again, so Cleanup gives it the same grace period as new content
 	@ColumnInfo(defaultValue = "CURRENT_TIMESTAMP")
 	public Long createtime;
 
@@ -32,13 +60,18 @@ public class LContent {
 		this.name = name;
 		this.checksum = checksum;
 		this.size = size;
+		this.chunked = false;
+		this.packed = false;
+		this.codec = CODEC_NONE;
+		this.storedsize = size;
+		this.lastverified = null;
+		this.wholecopytime = null;
 		this.createtime = Instant.now().getEpochSecond();
 	}
 
 
 	public JsonObject toJson() {
-		Gson gson = new GsonBuilder().create();
-		return gson.toJsonTree(this).getAsJsonObject();
+		return Json.toJsonObject(this);
 	}
 
 	@NonNull
@@ -0,0 +1,47 @@
+package aaa.sgordon.hybridrepo.local.types;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+
+import com.google.gson.JsonObject;
+
+import aaa.sgordon.hybridrepo.Json;
+
+//One entry in the manifest of a chunked content. Concatenating a content's chunks in idx order rebuilds it.
+@Entity(tableName = "contentchunk", primaryKeys = {"name", "idx"}, indices = {@Index("chunkhash")})
+public class LContentChunk {
+	@NonNull
+	public String name;
+	public int idx;
+
+	@NonNull
+	public String chunkhash;
+
+	@ColumnInfo(defaultValue = "0")
+	public long offset;
+	@ColumnInfo(defaultValue = "0")
+	public int size;
+
+
+	public LContentChunk(@NonNull String name, int idx, @NonNull String chunkhash, long offset, int size) {
+		this.name = name;
+		this.idx = idx;
+		this.chunkhash = chunkhash;
+		this.offset = offset;
+		this.size = size;
+	}
+
+
+	public JsonObject toJson() {
+		return Json.toJsonObject(this);
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		JsonObject json = toJson();
+		return json.toString();
+	}
+}
@@ -3,16 +3,20 @@ package aaa.sgordon.hybridrepo.local.types;
 import androidx.annotation.NonNull;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.time.Instant;
 import java.util.Objects;
 import java.util.UUID;
 
-@Entity(tableName = "file")
+import aaa.sgordon.hybridrepo.Json;
+
+@Entity(tableName = "file", indices = {@Index("checksum"), @Index({"accountuid", "fileuid"}),
+		@Index({"isdir", "lastused", "fileuid"})})
 public class LFile {
 	public static final String defaultChecksum = "E3B0C44298FC1C149AFBF4C8996FB92427AE41E4649B934CA495991B7852B855";
 	public static final String defaultAttrHash = "44136FA355B3678A1146AD16F7E8649E94FB4FC21FE77E8310C060F61CAAFF8A";
@@ -48,6 +52,11 @@ public class LFile {
 	@ColumnInfo(defaultValue = "CURRENT_TIMESTAMP")
 	public Long createtime;
 
+	//The last time the file was used, for eviction's least recently used order: when it was last read, falling back to
+	// when it was last written or created. Stored only so it can be indexed. Room writes it through the getter, so it
+	// always matches the times above and nobody has to remember to keep it up to date.
+	private Long lastused;
+
 
 
 	public LFile(@NonNull UUID fileuid, @NonNull UUID accountuid) {
@@ -67,10 +76,36 @@ public class LFile {
 
 	}
 
+	//Deep copy, so the copy's attributes can be changed without touching the original's
+	@Ignore
+	public LFile(@NonNull LFile other) {
+		this.fileuid = other.fileuid;
+		this.accountuid = other.accountuid;
+
+		this.isdir = other.isdir;
+		this.islink = other.islink;
+		this.checksum = other.checksum;
+		this.filesize = other.filesize;
+		this.userattr = other.userattr.deepCopy();
+		this.attrhash = other.attrhash;
+		this.changetime = other.changetime;
+		this.modifytime = other.modifytime;
+		this.accesstime = other.accesstime;
+		this.createtime = other.createtime;
+	}
+
+
+
+	public Long getLastused() {
+		return accesstime != null ? accesstime : modifytime != null ? modifytime : createtime;
+	}
+	public void setLastused(Long lastused) {
+		this.lastused = lastused;
+	}
 
 
 	public JsonObject toJson() {
-		return new Gson().toJsonTree(this).getAsJsonObject();
+		return Json.toJsonObject(this);
 	}
 
 	@NonNull
@@ -4,16 +4,29 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.util.Objects;
 import java.util.UUID;
 
-@Entity(tableName = "journal")
+import aaa.sgordon.hybridrepo.Json;
+
+@Entity(tableName = "journal", indices = {
+		@Index({"accountuid", "journalid"}),
+		@Index({"fileuid", "journalid", "isdeleted"}),
+		@Index({"accountuid", "changekind", "journalid", "fileuid"})})
 public class LJournal {
+	//What kind of change an entry is, most significant first. An entry that changes both contents and attributes
+	// is a content change, so use newchecksum/newattrhash to ask whether either one changed.
+	public static final String KIND_DELETE = "delete";
+	public static final String KIND_CREATE = "create";
+	public static final String KIND_CONTENT = "content";
+	public static final String KIND_ATTRIBUTES = "attributes";
+	public static final String KIND_PROPS = "props";
+
 	@PrimaryKey(autoGenerate = true)
 	public int journalid;
 
@@ -32,12 +45,24 @@ public class LJournal {
 	@ColumnInfo(defaultValue = "false")
 	public boolean fromSync;
 
+	//Typed copies of what's in changes, so queries can filter on them and Sync doesn't have to parse JSON.
+	//Always set through setChanges(). The default is quoted to match what MIGRATION_9_10 declares.
+	@NonNull
+	@ColumnInfo(defaultValue = "'"+KIND_PROPS+"'")
+	public String changekind;
+	@Nullable
+	public String newchecksum;
+	@Nullable
+	public String newattrhash;
+	@ColumnInfo(defaultValue = "false")
+	public boolean isdeleted;
+
 
 	public LJournal(@NonNull UUID fileuid, @NonNull UUID accountuid, @NonNull JsonObject changes) {
 		this.fileuid = fileuid;
 		this.accountuid = accountuid;
-		this.changes = changes;
 		this.fromSync = false;
+		setChanges(changes);
 	}
 	public LJournal(@Nullable LFile oldProps, @NonNull LFile newProps) {
 		this.fileuid = newProps.fileuid;
@@ -45,7 +70,37 @@ public class LJournal {
 		this.changetime = newProps.changetime;
 		this.fromSync = false;
 
-		this.changes = computeChanges(oldProps, newProps);
+		setChanges(computeChanges(oldProps, newProps));
+	}
+
+
+	public void setChanges(@NonNull JsonObject changes) {
+		this.changes = changes;
+
+		this.isdeleted = changes.has("isdeleted") && changes.get("isdeleted").getAsBoolean();
+		this.newchecksum = getString(changes, "checksum");
+		this.newattrhash = getString(changes, "attrhash");
+		this.changekind = kindOf(changes);
+	}
+
+	@Nullable
+	private static String getString(@NonNull JsonObject changes, @NonNull String key) {
+		if(!changes.has(key) || changes.get(key).isJsonNull())
+			return null;
+		return changes.get(key).getAsString();
+	}
+
+	@NonNull
+	public static String kindOf(@NonNull JsonObject changes) {
+		if(changes.has("isdeleted") && changes.get("isdeleted").getAsBoolean())
+			return KIND_DELETE;
+		if(changes.has("createtime"))
+			return KIND_CREATE;
+		if(changes.has("checksum"))
+			return KIND_CONTENT;
+		if(changes.has("attrhash"))
+			return KIND_ATTRIBUTES;
+		return KIND_PROPS;
 	}
 
 
@@ -71,7 +126,7 @@ public class LJournal {
 
 
 	public JsonObject toJson() {
-		return new Gson().toJsonTree(this).getAsJsonObject();
+		return Json.toJsonObject(this);
 	}
 
 	@NonNull
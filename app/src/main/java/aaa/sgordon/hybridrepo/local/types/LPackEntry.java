@@ -0,0 +1,45 @@
+package aaa.sgordon.hybridrepo.local.types;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+import com.google.gson.JsonObject;
+
+import aaa.sgordon.hybridrepo.Json;
+
+//Where a small, packed content lives inside a pack file
+@Entity(tableName = "packentry")
+public class LPackEntry {
+	@PrimaryKey
+	@NonNull
+	public String name;
+
+	public int packid;
+
+	@ColumnInfo(defaultValue = "0")
+	public long offset;
+	@ColumnInfo(defaultValue = "0")
+	public int length;
+
+
+	public LPackEntry(@NonNull String name, int packid, long offset, int length) {
+		this.name = name;
+		this.packid = packid;
+		this.offset = offset;
+		this.length = length;
+	}
+
+
+	public JsonObject toJson() {
+		return Json.toJsonObject(this);
+	}
+
+	@NonNull
+	@Override
+	public String toString() {
+		JsonObject json = toJson();
+		return json.toString();
+	}
+}
@@ -9,7 +9,6 @@ import android.util.Pair;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.io.BufferedInputStream;
@@ -26,6 +25,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import aaa.sgordon.hybridrepo.Json;
 import aaa.sgordon.hybridrepo.hybrid.ContentsNotFoundException;
 import aaa.sgordon.hybridrepo.remote.connectors.AccountConnector;
 import aaa.sgordon.hybridrepo.remote.connectors.ContentConnector;
@@ -111,7 +111,7 @@ public class RemoteRepo {
 		}
 
 		if(accountProps == null) throw new FileNotFoundException("Account not found! ID: '"+accountUID);
-		return new Gson().fromJson(accountProps, RAccount.class);
+		return Json.gson.fromJson(accountProps, RAccount.class);
 	}
 
 
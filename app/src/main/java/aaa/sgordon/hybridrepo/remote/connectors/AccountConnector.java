@@ -4,7 +4,6 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.io.IOException;
@@ -18,6 +17,8 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 
+import aaa.sgordon.hybridrepo.Json;
+
 public class AccountConnector {
 	private final String baseServerUrl;
 	private final OkHttpClient client;
@@ -62,7 +63,7 @@ public class AccountConnector {
 				throw new IOException("Response body is null");
 
 			String responseData = response.body().string();
-			return new Gson().fromJson(responseData, JsonObject.class);
+			return Json.gson.fromJson(responseData, JsonObject.class);
 		}
 	}
 
@@ -99,7 +100,7 @@ public class AccountConnector {
 				throw new IOException("Response body is null");
 
 			String responseData = response.body().string();
-			return new Gson().fromJson(responseData, JsonObject.class);
+			return Json.gson.fromJson(responseData, JsonObject.class);
 		}
 	}
 
@@ -134,7 +135,7 @@ public class AccountConnector {
 				throw new IOException("Response body is null");
 
 			String responseData = response.body().string();
-			return new Gson().fromJson(responseData, JsonObject.class);
+			return Json.gson.fromJson(responseData, JsonObject.class);
 		}
 	}
 
@@ -6,7 +6,6 @@ import android.util.Pair;
 
 import androidx.annotation.NonNull;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -18,6 +17,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
+import aaa.sgordon.hybridrepo.Json;
 import aaa.sgordon.hybridrepo.hybrid.ContentsNotFoundException;
 import aaa.sgordon.hybridrepo.remote.types.RContent;
 import okhttp3.FormBody;
@@ -57,7 +57,7 @@ public class ContentConnector {
 				throw new IOException("Response body is null");
 
 			String responseData = response.body().string();
-			return new Gson().fromJson(responseData, RContent.class);
+			return Json.gson.fromJson(responseData, RContent.class);
 		}
 	}
 
@@ -82,7 +82,7 @@ public class ContentConnector {
 				throw new IOException("Response body is null");
 
 			String responseData = response.body().string();
-			return new Gson().fromJson(responseData, RContent.class);
+			return Json.gson.fromJson(responseData, RContent.class);
 		}
 	}
 
@@ -179,7 +179,7 @@ public class ContentConnector {
 				throw new IOException("Response body is null");
 
 			String responseData = response.body().string();
-			JsonObject responseObj = new Gson().fromJson(responseData, JsonObject.class);
+			JsonObject responseObj = Json.gson.fromJson(responseData, JsonObject.class);
 
 
 			UUID uploadID = UUID.fromString( responseObj.get("uploadID").getAsString() );
@@ -212,7 +212,7 @@ public class ContentConnector {
 
 
 		FormBody.Builder builder = new FormBody.Builder();
-		builder.add("ETags", new Gson().toJson(etags));
+		builder.add("ETags", Json.gson.toJson(etags));
 		RequestBody body = builder.build();
 
 
@@ -16,6 +16,7 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Paths;
 import java.util.UUID;
 
+import aaa.sgordon.hybridrepo.Json;
 import aaa.sgordon.hybridrepo.remote.types.RFile;
 import okhttp3.FormBody;
 import okhttp3.HttpUrl;
@@ -64,7 +65,7 @@ public class FileConnector {
 
 			String responseData = response.body().string();
 
-			return new Gson().fromJson(responseData.trim(), RFile.class);
+			return Json.gson.fromJson(responseData.trim(), RFile.class);
 		}
 	}
 
@@ -106,7 +107,7 @@ public class FileConnector {
 				throw new IOException("Unexpected code " + response.code());
 
 			String responseData = response.body().string();
-			return new Gson().fromJson(responseData, RFile.class);
+			return Json.gson.fromJson(responseData, RFile.class);
 		}
 	}
 
@@ -148,7 +149,7 @@ public class FileConnector {
 				throw new IOException("Unexpected code " + response.code());
 
 			String responseData = response.body().string();
-			return new Gson().fromJson(responseData, RFile.class);
+			return Json.gson.fromJson(responseData, RFile.class);
 		}
 	}
 
@@ -189,7 +190,7 @@ public class FileConnector {
 				throw new IOException("Unexpected code " + response.code());
 
 			String responseData = response.body().string();
-			return new Gson().fromJson(responseData, RFile.class);
+			return Json.gson.fromJson(responseData, RFile.class);
 		}
 	}
 
@@ -227,7 +228,7 @@ public class FileConnector {
 				throw new IOException("Unexpected code " + response.code());
 
 			String responseData = response.body().string();
-			return new Gson().fromJson(responseData, RFile.class);
+			return Json.gson.fromJson(responseData, RFile.class);
 		}
 	}
 	
@@ -257,7 +258,7 @@ public class FileConnector {
 				throw new IOException("Response body is null");
 
 			//String responseData = response.body().string();
-			//return new Gson().fromJson(responseData, SFile.class);
+			//return Json.gson.fromJson(responseData, SFile.class);
 		}
 	}
 }
@@ -9,11 +9,13 @@ import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
 
 import java.io.IOException;
+import java.lang.reflect.Type;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.TimeoutException;
 
+import aaa.sgordon.hybridrepo.Json;
 import aaa.sgordon.hybridrepo.remote.types.RJournal;
 import okhttp3.FormBody;
 import okhttp3.OkHttpClient;
@@ -26,6 +28,7 @@ public class JournalConnector {
 	private final OkHttpClient client;
 	private final UUID deviceUID;
 	private static final String TAG = "Hyb.Rem.Journal";
+	private static final Type journalListType = new TypeToken< List<RJournal> >(){}.getType();
 
 
 	public JournalConnector(String baseServerUrl, OkHttpClient client, UUID deviceUID) {
@@ -64,7 +67,7 @@ public class JournalConnector {
 				throw new IOException("Unexpected code " + response.code());
 
 			String responseData = response.body().string();
-			return new Gson().fromJson(responseData, new TypeToken< List<RJournal> >(){}.getType());
+			return Json.gson.fromJson(responseData, journalListType);
 		}
 	}
 
@@ -98,7 +101,7 @@ public class JournalConnector {
 				throw new IOException("Unexpected code " + response.code());
 
 			String responseData = response.body().string();
-			return new Gson().fromJson(responseData, new TypeToken< List<RJournal> >(){}.getType());
+			return Json.gson.fromJson(responseData, journalListType);
 		}
 	}
 
@@ -123,7 +126,7 @@ public class JournalConnector {
 				throw new IOException("Response body is null");
 
 			String responseData = response.body().string();
-			return new Gson().fromJson(responseData, new TypeToken< List<RJournal> >(){}.getType());
+			return Json.gson.fromJson(responseData, journalListType);
 		}
 	}
 }
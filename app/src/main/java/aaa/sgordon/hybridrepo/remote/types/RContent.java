@@ -2,12 +2,12 @@ package aaa.sgordon.hybridrepo.remote.types;
 
 import androidx.annotation.NonNull;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 
 import java.time.Instant;
 
+import aaa.sgordon.hybridrepo.Json;
+
 public class RContent {
 	@NonNull
 	public String name;
@@ -23,8 +23,7 @@ public class RContent {
 
 
 	public JsonObject toJson() {
-		Gson gson = new GsonBuilder().create();
-		return gson.toJsonTree(this).getAsJsonObject();
+		return Json.toJsonObject(this);
 	}
 
 	@NonNull
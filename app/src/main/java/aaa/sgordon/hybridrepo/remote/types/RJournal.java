@@ -2,12 +2,13 @@ package aaa.sgordon.hybridrepo.remote.types;
 
 import androidx.annotation.NonNull;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.util.Objects;
 import java.util.UUID;
 
+import aaa.sgordon.hybridrepo.Json;
+
 public class RJournal {
 	public int journalid;
 
@@ -33,7 +34,7 @@ public class RJournal {
 
 
 	public JsonObject toJson() {
-		return new Gson().toJsonTree(this).getAsJsonObject();
+		return Json.toJsonObject(this);
 	}
 
 	@NonNull
@@ -0,0 +1,110 @@
+package aaa.sgordon.hybridrepo.hashing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+//Known answers from the official BLAKE3 test vectors:
+//https://github.com/BLAKE3-team/BLAKE3/blob/master/test_vectors/test_vectors.json
+//Each input is input_len bytes of 0, 1, 2, ... 249, 250, 0, 1, ... and the default hash is the first 32 bytes of output.
+public class Blake3Test {
+	private static final int[] LENGTHS = {0, 1, 1023, 1024, 1025, 2048, 3072, 31744, 102400};
+	private static final String[] HASHES = {
+			"af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262",
+			"2d3adedff11b61f14c886e35afa036736dcd87a74d27b5c1510225d0f592e213",
+			"10108970eeda3eb932baac1428c7a2163b0e924c9a9e25b35bba72b28f70bd11",
+			"42214739f095a406f3fc83deb889744ac00df831c10daa55189b5d121c855af7",
+			"d00278ae47eb27b34faecf67b4fe263f82d5412916c1ffd97c8cb7fb814b8444",
+			"e776b6028c7cd22a4d0ba182a8bf62205d2ef576467e838ed6f2529b85fba24a",
+			"b98cb0ff3623be03326b373de6b9095218513e64f1ee2edd2525c7ad1e5cffd2",
+			"62b6960e1a44bcc1eb1a611a8d6235b6b4b78f32e7abc4fb4c6cdcce94895c47",
+			"bc3e3d41a1146b069abffad3c0d44860cf664390afce4d9661f7902e7943e085"
+	};
+
+
+	@Test
+	public void hash_matchesTestVectors() {
+		for(int i = 0; i < LENGTHS.length; i++)
+			assertEquals(HASHES[i], toHex(Blake3.hash(input(LENGTHS[i]))), "input_len="+LENGTHS[i]);
+	}
+
+	//Odd update sizes land block and chunk boundaries in the middle of updates
+	@Test
+	public void incremental_matchesTestVectors() {
+		int[] updateSizes = {1, 63, 64, 65, 1000, 1024, 4096};
+
+		for(int i = 0; i < LENGTHS.length; i++) {
+			byte[] data = input(LENGTHS[i]);
+			for(int updateSize : updateSizes) {
+				Blake3.Hasher hasher = Blake3.newHasher();
+				for(int offset = 0; offset < data.length; offset += updateSize)
+					hasher.update(data, offset, Math.min(updateSize, data.length - offset));
+
+				assertEquals(HASHES[i], toHex(hasher.digest()), "input_len="+LENGTHS[i]+", updateSize="+updateSize);
+			}
+		}
+	}
+
+	@Test
+	public void parallel_matchesTestVectors(@TempDir File tempDir) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for(int i = 0; i < LENGTHS.length; i++)
+				assertEquals(HASHES[i], hashParallel(tempDir, input(LENGTHS[i]), pool), "input_len="+LENGTHS[i]);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	//Large enough that subtrees are split across the pool rather than each hashed in one go
+	@Test
+	public void parallel_matchesIncremental(@TempDir File tempDir) throws IOException {
+		int[] lengths = {4 * 1024 * 1024, 5 * 1024 * 1024 + 1, 9 * 1024 * 1024 - 1};
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for(int length : lengths) {
+				byte[] data = input(length);
+				Blake3.Hasher hasher = Blake3.newHasher();
+				hasher.update(data, 0, data.length);
+
+				assertEquals(toHex(hasher.digest()), hashParallel(tempDir, data, pool), "length="+length);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+
+	//---------------------------------------------------------------------------------------------
+
+	private static byte[] input(int length) {
+		byte[] data = new byte[length];
+		for(int i = 0; i < length; i++)
+			data[i] = (byte) (i % 251);
+		return data;
+	}
+
+	private static String hashParallel(File tempDir, byte[] data, ForkJoinPool pool) throws IOException {
+		File file = new File(tempDir, "input-"+data.length);
+		Files.write(file.toPath(), data);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return toHex(Blake3.hashParallel(channel, data.length, pool));
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for(byte b : bytes)
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+}